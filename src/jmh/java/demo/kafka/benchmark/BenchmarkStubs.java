@@ -0,0 +1,215 @@
+package demo.kafka.benchmark;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.circuitbreaker.ThirdpartyCircuitBreaker;
+import demo.kafka.domain.ProcessedEvent;
+import demo.kafka.domain.ProcessedEventStatus;
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.filter.ProcessedEventFilter;
+import demo.kafka.hedge.HedgedLookup;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.metrics.DemoMetrics;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.service.DemoService;
+import demo.kafka.store.IdempotencyStore;
+import demo.kafka.thirdparty.ThirdpartyClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.http.ResponseEntity;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Stand-ins for the service's external dependencies, each answering at once, and the wiring of the service's own
+ * components around them.
+ */
+class BenchmarkStubs {
+
+    static final String LOGGING_CONFIG = "-Dlogback.configurationFile=logback-benchmark.xml";
+
+    static final String TOPIC = "demo-inbound-topic";
+
+    static final String KEY = "benchmark-key";
+
+    static final String INBOUND_DATA = "event data";
+
+    static DemoInboundEvent buildDemoInboundEvent() {
+        return DemoInboundEvent.builder()
+                .id(KEY)
+                .data(INBOUND_DATA)
+                .build();
+    }
+
+    static KafkaDemoProperties properties() {
+        final KafkaDemoProperties properties = new KafkaDemoProperties();
+        properties.setId("demo");
+        properties.setOutboundTopic("demo-outbound-topic");
+        try {
+            properties.setThirdpartyEndpoint(new URL("http://localhost/api/kafkawithdynamodbdemo/"));
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+        return properties;
+    }
+
+    static KafkaClient kafkaClient(final KafkaDemoProperties properties) {
+        final KafkaClient kafkaClient = new KafkaClient();
+        ReflectionTestUtils.setField(kafkaClient, "properties", properties);
+        ReflectionTestUtils.setField(kafkaClient, "kafkaTemplate", new StubKafkaTemplate());
+        return kafkaClient;
+    }
+
+    static DemoService demoService(final KafkaDemoProperties properties, final IdempotencyStore idempotencyStore) {
+        final DemoService demoService = new DemoService();
+        ReflectionTestUtils.setField(demoService, "properties", properties);
+        ReflectionTestUtils.setField(demoService, "kafkaClient", kafkaClient(properties));
+        ReflectionTestUtils.setField(demoService, "idempotencyStore", idempotencyStore);
+        ReflectionTestUtils.setField(demoService, "processedEventCache", new ProcessedEventCache(properties, new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(demoService, "processedEventFilter",
+                new ProcessedEventFilter(idempotencyStore, properties, new SimpleAsyncTaskExecutor(), new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(demoService, "hedgedLookup",
+                new HedgedLookup(idempotencyStore, properties, null, new SimpleAsyncTaskExecutor(), new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(demoService, "thirdpartyClient", new ThirdpartyClient(new StubRestTemplate(), properties, new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(demoService, "metrics", new DemoMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(demoService, "circuitBreaker", new ThirdpartyCircuitBreaker(new KafkaListenerEndpointRegistry(), properties, new SimpleMeterRegistry()));
+        return demoService;
+    }
+
+    /**
+     * Reports every event as processed, or none, without recording anything.
+     */
+    static class StubIdempotencyStore implements IdempotencyStore {
+
+        private final boolean processed;
+
+        StubIdempotencyStore(final boolean processed) {
+            this.processed = processed;
+        }
+
+        @Override
+        public boolean isProcessed(final String eventId) {
+            return processed;
+        }
+
+        @Override
+        public Set<String> findProcessed(final Collection<String> eventIds) {
+            return processed ? Set.copyOf(eventIds) : Collections.emptySet();
+        }
+
+        @Override
+        public void markProcessed(final String eventId, final TopicPartition topicPartition, final long offset) {
+        }
+
+        @Override
+        public void claim(final String eventId, final String ownerId, final Duration lease, final TopicPartition topicPartition, final long offset) {
+            if (processed) {
+                throw new DuplicateEventException(eventId);
+            }
+        }
+
+        @Override
+        public boolean complete(final String eventId, final String ownerId) {
+            return true;
+        }
+
+        @Override
+        public void release(final String eventId, final String ownerId) {
+        }
+
+        @Override
+        public Set<String> findRecentlyProcessed(final TopicPartition topicPartition, final int limit) {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Answers every lookup with a completed item for each key requested.
+     */
+    static class StubAmazonDynamoDB extends AbstractAmazonDynamoDB {
+
+        @Override
+        public GetItemResult getItem(final GetItemRequest request) {
+            return new GetItemResult()
+                    .withItem(completedItem(request.getKey()))
+                    .withConsumedCapacity(consumedCapacity());
+        }
+
+        @Override
+        public BatchGetItemResult batchGetItem(final BatchGetItemRequest request) {
+            final Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+            request.getRequestItems().forEach((table, keysAndAttributes) -> responses.put(table,
+                    keysAndAttributes.getKeys().stream().map(this::completedItem).collect(Collectors.toList())));
+            return new BatchGetItemResult()
+                    .withResponses(responses)
+                    .withUnprocessedKeys(Collections.emptyMap())
+                    .withConsumedCapacity(consumedCapacity());
+        }
+
+        private Map<String, AttributeValue> completedItem(final Map<String, AttributeValue> key) {
+            final Map<String, AttributeValue> item = new HashMap<>(key);
+            item.put(ProcessedEvent.STATUS, new AttributeValue().withS(ProcessedEventStatus.COMPLETED.name()));
+            return item;
+        }
+
+        private ConsumedCapacity consumedCapacity() {
+            return new ConsumedCapacity().withTableName(ProcessedEvent.TABLE_NAME).withCapacityUnits(0.5);
+        }
+    }
+
+    /**
+     * Acknowledges every send at once, without a producer.
+     */
+    static class StubKafkaTemplate extends KafkaTemplate<String, String> {
+
+        StubKafkaTemplate() {
+            super(new DefaultKafkaProducerFactory<>(Collections.emptyMap()));
+        }
+
+        @Override
+        public ListenableFuture<SendResult<String, String>> send(final ProducerRecord<String, String> record) {
+            final SettableListenableFuture<SendResult<String, String>> future = new SettableListenableFuture<>();
+            future.set(new SendResult<>(record, new RecordMetadata(new TopicPartition(record.topic(), 0), 0, 0, 0, 0L, 0, 0)));
+            return future;
+        }
+    }
+
+    /**
+     * Answers every third party call with a 200.
+     */
+    static class StubRestTemplate extends RestTemplate {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> ResponseEntity<T> getForEntity(final String url, final Class<T> responseType, final Object... uriVariables) {
+            return (ResponseEntity<T>) ResponseEntity.ok("Success");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package demo.kafka.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.consumer.KafkaIdempotentConsumer;
+import demo.kafka.mapper.JsonMapper;
+import demo.kafka.metrics.DemoMetrics;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.service.DemoService;
+import demo.kafka.watermark.OffsetWatermarks;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole single record listener path, from the raw payload to the outbound send, with the idempotency store, third
+ * party call and producer stubbed out so that only this service's own overhead is measured.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkStubs.LOGGING_CONFIG)
+@State(Scope.Benchmark)
+public class ConsumerListenBenchmark {
+
+    // Whether the stubbed store reports every event as already processed.
+    @Param({"false", "true"})
+    private boolean duplicate;
+
+    // Whether the recently processed event cache is enabled.
+    @Param({"false", "true"})
+    private boolean processedEventCache;
+
+    private KafkaIdempotentConsumer consumer;
+
+    private final String eventIdPrefix = UUID.randomUUID().toString() + "-";
+
+    private long sequence;
+
+    private final String payload = JsonMapper.writeToJson(BenchmarkStubs.buildDemoInboundEvent());
+
+    @Setup
+    public void setUp() {
+        final KafkaDemoProperties properties = BenchmarkStubs.properties();
+        properties.getProcessedEventCache().setEnabled(processedEventCache);
+        final DemoService demoService = BenchmarkStubs.demoService(properties, new BenchmarkStubs.StubIdempotencyStore(duplicate));
+        consumer = new KafkaIdempotentConsumer(demoService, new DemoMetrics(new SimpleMeterRegistry()), new OffsetWatermarks(null, properties));
+    }
+
+    /**
+     * A new event gets a new event Id each time, so that it is not found in the recently processed event cache.
+     */
+    @Benchmark
+    public void listen() {
+        final String eventId = duplicate ? eventIdPrefix : eventIdPrefix + sequence++;
+        consumer.listen(eventId, BenchmarkStubs.KEY, BenchmarkStubs.TOPIC, 0, sequence, payload);
+    }
+}
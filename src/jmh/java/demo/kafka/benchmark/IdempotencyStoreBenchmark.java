@@ -0,0 +1,90 @@
+package demo.kafka.benchmark;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.DynamoDbIdempotencyStore;
+import demo.kafka.store.DynamoDbRateLimiter;
+import demo.kafka.store.InMemoryIdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The duplicate lookups.  The DynamoDB store runs against a client that answers at once, so the cost measured is that of
+ * building the requests and reading the results, not the round trip.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkStubs.LOGGING_CONFIG)
+@State(Scope.Benchmark)
+public class IdempotencyStoreBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final String eventId = UUID.randomUUID().toString();
+
+    private final List<String> batchEventIds = IntStream.range(0, BATCH_SIZE)
+            .mapToObj(i -> UUID.randomUUID().toString())
+            .collect(Collectors.toList());
+
+    private InMemoryIdempotencyStore inMemoryStore;
+
+    private DynamoDbIdempotencyStore dynamoDbStore;
+
+    private ProcessedEventCache processedEventCache;
+
+    @Setup
+    public void setUp() {
+        inMemoryStore = new InMemoryIdempotencyStore();
+        inMemoryStore.markProcessed(eventId);
+
+        final BenchmarkStubs.StubAmazonDynamoDB amazonDynamoDB = new BenchmarkStubs.StubAmazonDynamoDB();
+        final KafkaDemoProperties.DynamoDb dynamoDbConfig = new KafkaDemoProperties.DynamoDb();
+        dynamoDbStore = new DynamoDbIdempotencyStore(amazonDynamoDB, new DynamoDBMapper(amazonDynamoDB), dynamoDbConfig, new SimpleMeterRegistry(),
+                new DynamoDbRateLimiter(dynamoDbConfig, new SimpleMeterRegistry()));
+
+        final KafkaDemoProperties properties = BenchmarkStubs.properties();
+        properties.getProcessedEventCache().setEnabled(true);
+        processedEventCache = new ProcessedEventCache(properties, new SimpleMeterRegistry());
+        processedEventCache.markProcessed(eventId);
+    }
+
+    @Benchmark
+    public boolean inMemoryIsProcessed() {
+        return inMemoryStore.isProcessed(eventId);
+    }
+
+    @Benchmark
+    public boolean processedEventCacheIsProcessed() {
+        return processedEventCache.isProcessed(eventId);
+    }
+
+    @Benchmark
+    public boolean dynamoDbGetItem() {
+        return dynamoDbStore.isProcessed(eventId);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Set<String> dynamoDbBatchGetItem() {
+        return dynamoDbStore.findProcessed(batchEventIds);
+    }
+}
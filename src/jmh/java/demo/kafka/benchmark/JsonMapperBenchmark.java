@@ -0,0 +1,54 @@
+package demo.kafka.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.mapper.DemoInboundEventDeserializer;
+import demo.kafka.mapper.JsonMapper;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deserialising the inbound event payload, as done for every record consumed: either from the bytes to a String by the
+ * consumer and then to the event by the listener, or straight from the bytes by the typed value deserializer.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkStubs.LOGGING_CONFIG)
+@State(Scope.Benchmark)
+public class JsonMapperBenchmark {
+
+    private final String payload = JsonMapper.writeToJson(BenchmarkStubs.buildDemoInboundEvent());
+
+    private final byte[] value = payload.getBytes(StandardCharsets.UTF_8);
+
+    private final StringDeserializer stringDeserializer = new StringDeserializer();
+
+    private final DemoInboundEventDeserializer typedDeserializer = new DemoInboundEventDeserializer();
+
+    @Benchmark
+    public DemoInboundEvent readFromJson() {
+        return JsonMapper.readFromJson(payload, DemoInboundEvent.class);
+    }
+
+    @Benchmark
+    public DemoInboundEvent stringDeserializerThenReadFromJson() {
+        return JsonMapper.readFromJson(stringDeserializer.deserialize(BenchmarkStubs.TOPIC, value), DemoInboundEvent.class);
+    }
+
+    @Benchmark
+    public DemoInboundEvent typedDeserializer() {
+        return typedDeserializer.deserialize(BenchmarkStubs.TOPIC, value);
+    }
+}
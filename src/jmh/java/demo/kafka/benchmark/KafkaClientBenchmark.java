@@ -0,0 +1,45 @@
+package demo.kafka.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.lib.KafkaClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.SendResult;
+
+/**
+ * Building the outbound payload, and the whole synchronous send against a producer that acknowledges at once.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkStubs.LOGGING_CONFIG)
+@State(Scope.Benchmark)
+public class KafkaClientBenchmark {
+
+    private KafkaClient kafkaClient;
+
+    @Setup
+    public void setUp() {
+        kafkaClient = BenchmarkStubs.kafkaClient(BenchmarkStubs.properties());
+    }
+
+    @Benchmark
+    public String buildPayload() {
+        return kafkaClient.buildPayload(BenchmarkStubs.INBOUND_DATA);
+    }
+
+    @Benchmark
+    public SendResult<String, String> sendMessage() {
+        return kafkaClient.sendMessage(BenchmarkStubs.KEY, BenchmarkStubs.INBOUND_DATA);
+    }
+}
@@ -0,0 +1,61 @@
+package demo.kafka.load;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+
+/**
+ * Counts the calls made on the AmazonDynamoDB client by operation, by wrapping the client bean in a proxy before it is
+ * injected, so that the DynamoDBMapper's calls are counted too.
+ *
+ * The DYNAMODB_ASYNC store's DynamoDbAsyncClient is wrapped the same way, counting the requests it starts, so both
+ * stores report their calls under the same operation names.  Only the methods returning a CompletableFuture are
+ * requests, and the builder overloads delegate to the request ones on the client itself, so each is counted once.
+ */
+public class DynamoDbCallCounter implements BeanPostProcessor {
+
+    private final ConcurrentMap<String, LongAdder> calls = new ConcurrentHashMap<>();
+
+    @Override
+    public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+        if (bean instanceof AmazonDynamoDB) {
+            return count(bean, AmazonDynamoDB.class, false);
+        }
+        if (bean instanceof DynamoDbAsyncClient) {
+            return count(bean, DynamoDbAsyncClient.class, true);
+        }
+        return bean;
+    }
+
+    private Object count(final Object bean, final Class<?> client, final boolean requestsOnly) {
+        return Proxy.newProxyInstance(client.getClassLoader(), new Class<?>[] { client }, (proxy, method, args) -> {
+            if (!requestsOnly || CompletableFuture.class.isAssignableFrom(method.getReturnType())) {
+                calls.computeIfAbsent(method.getName(), operation -> new LongAdder()).increment();
+            }
+            try {
+                return method.invoke(bean, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    public void reset() {
+        calls.clear();
+    }
+
+    public Map<String, Long> getCalls() {
+        final Map<String, Long> counts = new TreeMap<>();
+        calls.forEach((operation, count) -> counts.put(operation, count.sum()));
+        return counts;
+    }
+}
@@ -0,0 +1,227 @@
+package demo.kafka.load;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.integration.IntegrationTestBase;
+import demo.kafka.integration.LocalDbCreationRule;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.mapper.JsonMapper;
+import demo.kafka.properties.KafkaDemoProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.messaging.handler.annotation.Payload;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Drives a sustained load through the idempotent consumer, with embedded Kafka, DynamoDB Local and a WireMock third
+ * party, so it runs offline on one box.  Run with: mvn -Pload test
+ *
+ * The shape of the run is set by the load.* system properties in LoadProfile, and the service's own settings can be
+ * overridden as system properties too, such as -Dkafkademo.concurrency.initial=4 -Dkafkademo.batch.enabled=true.
+ *
+ * The records are sent at the configured rate without waiting on each acknowledgement.  A duplicate repeats an event
+ * already sent, on the same key and so the same partition.  The run fails if any event is not processed, or any
+ * duplicate leaks through as a second outbound event.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, partitions = 4, topics = { "demo-inbound-topic" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
+public class IdempotentConsumerLoadTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    private static final String THIRDPARTY_PATH = "/api/kafkawithdynamodbdemo/.*";
+
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Autowired
+    private LoadTestListener loadTestListener;
+
+    @Autowired
+    private DynamoDbCallCounter dynamoDbCallCounter;
+
+    @Autowired
+    private KafkaDemoProperties properties;
+
+    private final LoadProfile profile = new LoadProfile();
+
+    @Configuration
+    static class LoadTestConfig {
+
+        @Bean
+        public static DynamoDbCallCounter dynamoDbCallCounter() {
+            return new DynamoDbCallCounter();
+        }
+
+        @Bean
+        public LoadTestListener loadTestListener() {
+            return new LoadTestListener();
+        }
+
+        @Bean
+        public ConcurrentKafkaListenerContainerFactory<String, String> loadTestListenerContainerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+            final Map<String, Object> config = new HashMap<>();
+            config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+            config.put(ConsumerConfig.GROUP_ID_CONFIG, "IdempotentConsumerLoadTest");
+            config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+            config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+            // So that with transactions the outbound events of aborted transactions are not counted.
+            config.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+            final ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+            factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(config));
+            return factory;
+        }
+    }
+
+    /**
+     * Consumes the outbound events into the report of the current run.
+     */
+    public static class LoadTestListener {
+        private volatile LoadReport report;
+
+        @KafkaListener(groupId = "IdempotentConsumerLoadTest", topics = "demo-outbound-topic", containerFactory = "loadTestListenerContainerFactory")
+        void receive(@Payload final String payload) {
+            final LoadReport current = report;
+            if (current != null) {
+                current.received(payload);
+            }
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        stubFor(get(urlPathMatching(THIRDPARTY_PATH))
+                .willReturn(aResponse().withStatus(200).withHeader("Content-Type", "text/plain").withBody("Success")
+                        .withFixedDelay((int) profile.getThirdpartyDelay().toMillis())));
+        dynamoDbCallCounter.reset();
+    }
+
+    @Test
+    public void testSustainedLoad() throws Exception {
+        final LoadReport report = new LoadReport(profile.getRecords());
+        loadTestListener.report = report;
+        final int duplicates = (int) Math.round(profile.getRecords() * profile.getDuplicateRatio() / (1 - profile.getDuplicateRatio()));
+        log.info("Sending {} events and {} duplicates at {} per second", profile.getRecords(), duplicates, profile.getRate());
+
+        final long firstSentNanos = send(profile.getRecords(), duplicates);
+
+        Awaitility.await().atMost(profile.getDrainTimeout().toSeconds(), TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(report::getReceived, equalTo(profile.getRecords()));
+        // Give any leaked duplicates behind the last event time to arrive.
+        TimeUnit.SECONDS.sleep(2);
+
+        final Map<String, Object> results = new LinkedHashMap<>();
+        results.put("name", profile.getName());
+        results.put("profile", profile.toMap());
+        results.put("settings", settings());
+        results.put("duplicatesSent", duplicates);
+        results.putAll(report.toMap(firstSentNanos));
+        results.put("thirdpartyCalls", findAll(getRequestedFor(urlPathMatching(THIRDPARTY_PATH))).size());
+        results.put("dynamoDbCalls", dynamoDbCallCounter.getCalls());
+        log.info("Load test results: " + results);
+        LoadReport.write(profile.getResultsDirectory(), profile.getName(), results);
+
+        assertThat(report.getDuplicateLeaks(), equalTo(0));
+    }
+
+    /**
+     * Send the events and duplicates interleaved at the configured rate, returning when the first was sent.
+     */
+    private long send(final int records, final int duplicates) throws Exception {
+        final Random random = new Random(42);
+        final List<ProducerRecord<String, String>> sent = new ArrayList<>();
+        final List<Boolean> isDuplicate = new ArrayList<>(Collections.nCopies(records, false));
+        isDuplicate.addAll(Collections.nCopies(duplicates, true));
+        // Keep the first record an event, so a duplicate always has one to repeat.
+        Collections.shuffle(isDuplicate.subList(1, isDuplicate.size()), random);
+
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / profile.getRate();
+        final long firstSentNanos = System.nanoTime();
+        for (int i = 0; i < isDuplicate.size(); i++) {
+            LockSupport.parkNanos(firstSentNanos + i * intervalNanos - System.nanoTime());
+            final ProducerRecord<String, String> record = isDuplicate.get(i)
+                    ? sent.get(random.nextInt(sent.size()))
+                    : event(random);
+            if (!isDuplicate.get(i)) {
+                sent.add(record);
+            }
+            kafkaTemplate.send(record);
+        }
+        kafkaTemplate.flush();
+        log.info("Sent {} records in {}ms", isDuplicate.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstSentNanos));
+        return firstSentNanos;
+    }
+
+    private ProducerRecord<String, String> event(final Random random) {
+        final String eventId = UUID.randomUUID().toString();
+        final String key = "key-" + random.nextInt(profile.getKeys());
+        final DemoInboundEvent event = DemoInboundEvent.builder()
+                .id(key)
+                .data(LoadReport.payload(eventId, System.nanoTime()))
+                .build();
+        return new ProducerRecord<>(DEMO_INBOUND_TEST_TOPIC, null, key, JsonMapper.writeToJson(event),
+                Collections.singletonList(new RecordHeader(KafkaClient.EVENT_ID_HEADER_KEY, eventId.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * The service settings that most affect throughput, recorded with the results.
+     */
+    private Map<String, Object> settings() {
+        final Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("idempotencyStore", properties.getIdempotencyStore());
+        settings.put("batch", properties.getBatch().isEnabled());
+        settings.put("batchAsyncSend", properties.getBatch().isAsyncSend());
+        settings.put("keyOrderedWorkers", properties.getBatch().getKeyOrderedWorkers());
+        settings.put("processedEventCache", properties.getProcessedEventCache().isEnabled());
+        settings.put("claim", properties.getClaim().isEnabled());
+        settings.put("watermark", properties.getWatermark().isEnabled());
+        settings.put("concurrency", properties.getConcurrency().getInitial());
+        settings.put("singleFlight", properties.getThirdparty().isSingleFlight());
+        settings.put("responseCache", properties.getThirdparty().isResponseCacheEnabled());
+        settings.put("transactions", properties.getTransactions().isEnabled());
+        return settings;
+    }
+}
@@ -0,0 +1,41 @@
+package demo.kafka.load;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * The shape of a load test run, read from system properties so that runs can be varied from the command line, such as
+ * -Dload.rate=2000 -Dload.duplicateRatio=0.2.
+ */
+@Getter
+public class LoadProfile {
+
+    // A label for the run, used in the result file name.
+    private final String name = System.getProperty("load.name", "default");
+    // The distinct events sent, not counting the duplicates.
+    private final int records = Integer.getInteger("load.records", 5000);
+    // The send rate of all records, duplicates included, per second.
+    private final int rate = Integer.getInteger("load.rate", 500);
+    // The fraction of the records sent that repeat an event already sent, with its event Id, key and payload.
+    private final double duplicateRatio = Double.parseDouble(System.getProperty("load.duplicateRatio", "0.1"));
+    // The distinct keys the events are spread over.
+    private final int keys = Integer.getInteger("load.keys", 100);
+    // The delay of each third party response.
+    private final Duration thirdpartyDelay = Duration.ofMillis(Long.getLong("load.thirdpartyDelayMs", 5));
+    // How long to wait for the records to be processed once all are sent.
+    private final Duration drainTimeout = Duration.ofSeconds(Long.getLong("load.drainTimeoutSeconds", 120));
+    private final String resultsDirectory = System.getProperty("load.resultsDirectory", "target/load-results");
+
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("records", records);
+        map.put("rate", rate);
+        map.put("duplicateRatio", duplicateRatio);
+        map.put("keys", keys);
+        map.put("thirdpartyDelayMs", thirdpartyDelay.toMillis());
+        return map;
+    }
+}
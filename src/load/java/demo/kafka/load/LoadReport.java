@@ -0,0 +1,111 @@
+package demo.kafka.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Collects the outbound events of a load test run, and reports the throughput, the end-to-end latency percentiles and
+ * the duplicate leaks, as a JSON file so that runs can be compared.
+ *
+ * Each event's payload carries its event Id and the System.nanoTime at which it was first sent, so the latency is
+ * measured from the first send to the first outbound event, within the one JVM.  An event with more than one outbound
+ * event is a duplicate that leaked through the idempotent consumer.
+ */
+@Slf4j
+public class LoadReport {
+
+    private static final String SEPARATOR = "|";
+
+    private final ConcurrentMap<String, AtomicInteger> receipts = new ConcurrentHashMap<>();
+
+    private final AtomicLongArray latencyNanos;
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    private final AtomicLong lastReceivedNanos = new AtomicLong();
+
+    public LoadReport(final int records) {
+        this.latencyNanos = new AtomicLongArray(records);
+    }
+
+    public static String payload(final String eventId, final long sentNanos) {
+        return eventId + SEPARATOR + sentNanos;
+    }
+
+    public void received(final String payload) {
+        final long now = System.nanoTime();
+        final int separator = payload.lastIndexOf(SEPARATOR);
+        if (separator < 0) {
+            // Not an event of this run.
+            return;
+        }
+        final String eventId = payload.substring(0, separator);
+        if (receipts.computeIfAbsent(eventId, id -> new AtomicInteger()).incrementAndGet() == 1) {
+            final int index = received.getAndIncrement();
+            if (index < latencyNanos.length()) {
+                latencyNanos.set(index, now - Long.parseLong(payload.substring(separator + 1)));
+            }
+            lastReceivedNanos.accumulateAndGet(now, Math::max);
+        }
+    }
+
+    public int getReceived() {
+        return received.get();
+    }
+
+    public int getDuplicateLeaks() {
+        return receipts.values().stream().mapToInt(count -> count.get() - 1).sum();
+    }
+
+    public Map<String, Object> toMap(final long firstSentNanos) {
+        final int count = Math.min(received.get(), latencyNanos.length());
+        final long[] latencies = new long[count];
+        for (int i = 0; i < count; i++) {
+            latencies[i] = latencyNanos.get(i);
+        }
+        Arrays.sort(latencies);
+        final double durationSeconds = (lastReceivedNanos.get() - firstSentNanos) / 1e9;
+
+        final Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50", percentileMs(latencies, 0.5));
+        latency.put("p99", percentileMs(latencies, 0.99));
+        latency.put("p999", percentileMs(latencies, 0.999));
+        latency.put("max", count > 0 ? latencies[count - 1] / 1e6 : 0);
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("processed", count);
+        result.put("durationSeconds", durationSeconds);
+        result.put("recordsPerSecond", durationSeconds > 0 ? count / durationSeconds : 0);
+        result.put("latencyMs", latency);
+        result.put("duplicateLeaks", getDuplicateLeaks());
+        return result;
+    }
+
+    public static File write(final String directory, final String name, final Map<String, Object> report) throws IOException {
+        final File file = new File(directory, name + "-" + System.currentTimeMillis() + ".json");
+        file.getParentFile().mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+        log.info("Load test results written to " + file.getAbsolutePath());
+        return file;
+    }
+
+    private static double percentileMs(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
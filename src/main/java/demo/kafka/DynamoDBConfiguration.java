@@ -1,17 +1,30 @@
 package demo.kafka;
 
+import java.net.URI;
+
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.retry.PredefinedBackoffStrategies;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import demo.kafka.properties.KafkaDemoProperties;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 
 @Configuration
 public class DynamoDBConfiguration {
@@ -38,17 +51,55 @@ public class DynamoDBConfiguration {
         return new AWSStaticCredentialsProvider(amazonAWSCredentials());
     }
 
+    /**
+     * The SDK's retries are bounded, with jittered back off from a longer base delay when throttled, so a throttled call
+     * fails soon and is retried by the consumer as a retryable exception, rather than blocking it for the SDK's default
+     * ten retries.
+     */
     @Bean
-    public AmazonDynamoDB amazonDynamoDB() {
+    public AmazonDynamoDB amazonDynamoDB(final KafkaDemoProperties properties) {
+        final KafkaDemoProperties.DynamoDb config = properties.getDynamodb();
         return AmazonDynamoDBClientBuilder.standard()
             .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(awsDynamoDBEndPoint, awsRegion))
             .withCredentials(amazonAWSCredentialsProvider())
+            .withClientConfiguration(new ClientConfiguration()
+                .withRetryPolicy(RetryPolicy.builder()
+                    .withRetryCondition(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION)
+                    .withBackoffStrategy(new PredefinedBackoffStrategies.SDKDefaultBackoffStrategy((int) config.getSdkBaseBackOff().toMillis(),
+                        (int) config.getSdkThrottledBaseBackOff().toMillis(), (int) config.getSdkMaxBackOff().toMillis()))
+                    .withMaxErrorRetry(config.getSdkMaxErrorRetry())
+                    .withHonorMaxErrorRetryInClientConfig(false)
+                    .build())
+                .withClientExecutionTimeout((int) config.getSdkClientExecutionTimeout().toMillis()))
             .build();
     }
 
     @Bean
     @Primary
-    public DynamoDBMapper mapper() {
-        return new DynamoDBMapper(amazonDynamoDB());
+    public DynamoDBMapper mapper(final AmazonDynamoDB amazonDynamoDB) {
+        return new DynamoDBMapper(amazonDynamoDB);
+    }
+
+    /**
+     * The non-blocking client used by the DYNAMODB_ASYNC idempotency store, on a Netty connection pool sized for the
+     * requests the store allows in flight.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "kafkademo.idempotency-store", havingValue = "DYNAMODB_ASYNC")
+    public DynamoDbAsyncClient dynamoDbAsyncClient(final KafkaDemoProperties properties) {
+        final KafkaDemoProperties.DynamoDb config = properties.getDynamodb();
+        return DynamoDbAsyncClient.builder()
+            .endpointOverride(URI.create(awsDynamoDBEndPoint))
+            .region(Region.of(awsRegion))
+            .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(awsAccessKey, awsSecretKey)))
+            .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(config.getAsyncMaxConnections())
+                .maxPendingConnectionAcquires(config.getAsyncMaxPendingConnectionAcquires())
+                .connectionTimeout(config.getAsyncConnectTimeout())
+                .connectionAcquisitionTimeout(config.getAsyncConnectionAcquisitionTimeout())
+                .readTimeout(config.getAsyncReadTimeout())
+                .connectionMaxIdleTime(config.getAsyncConnectionMaxIdleTime()))
+            .overrideConfiguration(override -> override.apiCallTimeout(config.getAsyncApiCallTimeout()))
+            .build();
     }
 }
@@ -0,0 +1,114 @@
+package demo.kafka;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.DynamoDbAsyncIdempotencyStore;
+import demo.kafka.store.DynamoDbIdempotencyStore;
+import demo.kafka.store.DynamoDbRateLimiter;
+import demo.kafka.store.IdempotencyStore;
+import demo.kafka.store.IdempotencyStoreType;
+import demo.kafka.store.InMemoryIdempotencyStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.Config;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.config.TopicConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+
+@Slf4j
+@Configuration
+public class IdempotencyStoreConfiguration {
+
+    private static final String INBOUND_TOPIC = "demo-inbound-topic";
+
+    private static final Duration RETENTION_CHECK_TIMEOUT = Duration.ofSeconds(10);
+
+    @Bean
+    public DynamoDbRateLimiter dynamoDbRateLimiter(final KafkaDemoProperties properties, final MeterRegistry meterRegistry) {
+        return new DynamoDbRateLimiter(properties.getDynamodb(), meterRegistry);
+    }
+
+    @Bean
+    public IdempotencyStore idempotencyStore(final KafkaDemoProperties properties, final AmazonDynamoDB amazonDynamoDB, final DynamoDBMapper dynamoDBMapper,
+                                             final ObjectProvider<DynamoDbAsyncClient> dynamoDbAsyncClient, final DynamoDbRateLimiter dynamoDbRateLimiter,
+                                             final MeterRegistry meterRegistry, @Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+        log.info("Using idempotency store: " + properties.getIdempotencyStore());
+        if (properties.getIdempotencyStore() != IdempotencyStoreType.IN_MEMORY) {
+            verifyRetention(properties.getDynamodb(), bootstrapServers);
+        }
+        switch (properties.getIdempotencyStore()) {
+            case IN_MEMORY:
+                return new InMemoryIdempotencyStore();
+            case DYNAMODB_ASYNC:
+                final DynamoDbAsyncIdempotencyStore asyncStore = new DynamoDbAsyncIdempotencyStore(dynamoDbAsyncClient.getObject(),
+                        properties.getDynamodb(), meterRegistry, dynamoDbRateLimiter);
+                if (properties.getDynamodb().isManageTimeToLive()) {
+                    asyncStore.enableTimeToLive();
+                }
+                return asyncStore;
+            case DYNAMODB:
+            default:
+                final DynamoDbIdempotencyStore store = new DynamoDbIdempotencyStore(amazonDynamoDB, dynamoDBMapper, properties.getDynamodb(), meterRegistry,
+                        dynamoDbRateLimiter);
+                if (properties.getDynamodb().isManageTimeToLive()) {
+                    store.enableTimeToLive();
+                }
+                return store;
+        }
+    }
+
+    /**
+     * Check the retention against the inbound topic's retention.ms, as an event redelivered after its record has expired
+     * is processed again.  Best effort, as the topic may not exist yet or its config may not be readable.
+     */
+    private static void verifyRetention(final KafkaDemoProperties.DynamoDb config, final String bootstrapServers) {
+        final ConfigResource topic = new ConfigResource(ConfigResource.Type.TOPIC, INBOUND_TOPIC);
+        final Map<String, Object> adminConfig = Map.of(
+                AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
+                AdminClientConfig.DEFAULT_API_TIMEOUT_MS_CONFIG, (int) RETENTION_CHECK_TIMEOUT.toMillis(),
+                AdminClientConfig.REQUEST_TIMEOUT_MS_CONFIG, (int) RETENTION_CHECK_TIMEOUT.toMillis());
+        final ConfigEntry retentionMs;
+        try (AdminClient adminClient = AdminClient.create(adminConfig)) {
+            final Config topicConfig = adminClient.describeConfigs(Collections.singleton(topic)).all()
+                    .get(RETENTION_CHECK_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS).get(topic);
+            retentionMs = topicConfig.get(TopicConfig.RETENTION_MS_CONFIG);
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Unable to verify the retention against topic " + INBOUND_TOPIC + " retention.ms: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted verifying the retention against topic " + INBOUND_TOPIC + " retention.ms");
+            return;
+        }
+        if (retentionMs == null || retentionMs.value() == null) {
+            log.warn("Unable to verify the retention as topic " + INBOUND_TOPIC + " has no retention.ms");
+            return;
+        }
+        final long topicRetentionMs = Long.parseLong(retentionMs.value());
+        if (topicRetentionMs >= 0 && config.getRetention().toMillis() >= topicRetentionMs) {
+            log.info("Retention of " + config.getRetention() + " covers topic " + INBOUND_TOPIC + " retention.ms of " + topicRetentionMs);
+            return;
+        }
+        final String message = "Retention of " + config.getRetention() + " is shorter than topic " + INBOUND_TOPIC + " retention.ms of "
+                + (topicRetentionMs < 0 ? "unlimited" : String.valueOf(topicRetentionMs)) + ", so an event redelivered after its record expires is processed again";
+        if (config.isFailOnShortRetention()) {
+            throw new IllegalStateException(message);
+        }
+        log.warn(message);
+    }
+}
@@ -1,14 +1,28 @@
 package demo.kafka;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
+import demo.kafka.circuitbreaker.ThirdpartyCircuitBreaker;
+import demo.kafka.concurrency.AdaptiveConcurrencyController;
+import demo.kafka.consumer.PartitionRebalanceListener;
+import demo.kafka.exception.CircuitBreakerOpenException;
+import demo.kafka.mapper.DemoInboundEventDeserializer;
+import demo.kafka.metrics.DemoMetrics;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.retry.LeaseAwareBackOffPolicy;
+import demo.kafka.retry.RetryMetricsListener;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
@@ -18,57 +32,258 @@ import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultAfterRollbackProcessor;
+import org.springframework.kafka.listener.RecoveringBatchErrorHandler;
+import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
+import org.springframework.kafka.listener.adapter.RetryingMessageListenerAdapter;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
 import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.backoff.FixedBackOff;
 
 @Slf4j
 @ComponentScan(basePackages = {"demo.kafka"})
 @Configuration
 public class KafkaDemoConfiguration {
 
+    private static final long RETRY_BACK_OFF_MS = 6000;
+    private static final int RETRY_MAX_ATTEMPTS = 5;
+
+    /**
+     * With retry topics enabled no retry template is set, so that a retryable exception reaches the retry topic error
+     * handler instead of being retried, and then recovered, on the consumer thread.
+     *
+     * A value that failed deserialization never reaches the listener, so is counted as a mapping failure by the error
+     * handler's recoverer.
+     *
+     * With adaptive concurrency the controller times each record as a record interceptor, and changes the concurrency of
+     * the container at runtime.
+     *
+     * With transactions enabled each record is consumed in a Kafka transaction, so its outbound event and its consumer
+     * offset are committed together.
+     */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(final ConsumerFactory<String, String> consumerFactory, final RetryTemplate retryTemplate) {
-        final ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory();
+    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory(final ConsumerFactory<String, Object> consumerFactory, final RetryTemplate retryTemplate,
+                                                                                                 final KafkaDemoProperties properties, final DemoMetrics metrics,
+                                                                                                 final PartitionRebalanceListener rebalanceListener,
+                                                                                                 final AdaptiveConcurrencyController concurrencyController,
+                                                                                                 final ThirdpartyCircuitBreaker circuitBreaker,
+                                                                                                 final KafkaTemplate<String, String> kafkaTemplate,
+                                                                                                 final ObjectProvider<KafkaTransactionManager<String, String>> kafkaTransactionManager) {
+        final ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory();
         factory.setConsumerFactory(consumerFactory);
+        factory.getContainerProperties().setConsumerRebalanceListener(rebalanceListener);
+        factory.setConcurrency(properties.getConcurrency().getInitial());
+        final KafkaTransactionManager<String, String> transactionManager = kafkaTransactionManager.getIfAvailable();
+        if (transactionManager != null) {
+            factory.getContainerProperties().setTransactionManager(transactionManager);
+            // One producer per consumer thread, fenced by the consumer group generation rather than the transactional Id.
+            factory.getContainerProperties().setEosMode(ContainerProperties.EOSMode.BETA);
+        }
+        if (concurrencyController.isEnabled()) {
+            factory.setRecordInterceptor(concurrencyController);
+        }
+        if (properties.getRetryTopics().isEnabled()) {
+            return factory;
+        }
+        final BiConsumer<ConsumerRecord<?, ?>, Exception> recoverer = (record, exception) -> {
+            if (exception instanceof DeserializationException || exception.getCause() instanceof DeserializationException) {
+                metrics.mappingFailure(DemoMetrics.topicPartition(record));
+            }
+            log.error("Error processing message, skipping record at offset " + record.offset() + ": " + exception.getMessage());
+        };
+        if (transactionManager != null) {
+            // The failed record's transaction is rolled back, so it is sought back to by the after rollback processor, and
+            // the offset of a skipped record is committed in a transaction of its own.
+            final DefaultAfterRollbackProcessor<String, Object> afterRollbackProcessor = new DefaultAfterRollbackProcessor<>(recoverer,
+                    new FixedBackOff(0L, 9L), kafkaTemplate, true);
+            circuitBreaker.holdRejectedRecords(afterRollbackProcessor);
+            factory.setAfterRollbackProcessor(afterRollbackProcessor);
+        } else {
+            final SeekToCurrentErrorHandler errorHandler = new SeekToCurrentErrorHandler(recoverer);
+            circuitBreaker.holdRejectedRecords(errorHandler);
+            factory.setErrorHandler(errorHandler);
+        }
         factory.setRetryTemplate(retryTemplate);
         factory.setRecoveryCallback((context -> {
+            if (ThirdpartyCircuitBreaker.isRejection(context.getLastThrowable())) {
+                throw (Exception) context.getLastThrowable();
+            }
             log.warn("**** Retries exhausted - error class: "+context.getLastThrowable()+" - error message: "+context.getLastThrowable().getMessage());
+            final ConsumerRecord<?, ?> record = (ConsumerRecord<?, ?>) context.getAttribute(RetryingMessageListenerAdapter.CONTEXT_RECORD);
+            if (record != null) {
+                metrics.recovery(DemoMetrics.topicPartition(record));
+            }
             // Return null to mark processing complete.
             return null;
         }));
         return factory;
     }
 
+    /**
+     * Batch listener container factory, delivering each poll to the listener as a single list of records.
+     *
+     * On a retryable failure the listener throws a BatchListenerFailedException carrying the index of the failed record.
+     * The offsets of the records before it are committed, so only the failed record onwards is redelivered and retried.
+     * A record rejected by the open circuit breaker is redelivered without limit.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, Object> batchKafkaListenerContainerFactory(final ConsumerFactory<String, Object> consumerFactory, final DemoMetrics metrics,
+                                                                                                      final KafkaDemoProperties properties,
+                                                                                                      final PartitionRebalanceListener rebalanceListener,
+                                                                                                      final ThirdpartyCircuitBreaker circuitBreaker) {
+        final ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory();
+        factory.setConsumerFactory(consumerFactory);
+        factory.getContainerProperties().setConsumerRebalanceListener(rebalanceListener);
+        factory.setBatchListener(true);
+        if (properties.getTransactions().isEnabled()) {
+            log.warn("Transactions are not supported by the batch listener, so its records are consumed without them");
+        }
+        final RecoveringBatchErrorHandler errorHandler = new RecoveringBatchErrorHandler((record, exception) -> {
+            log.warn("**** Retries exhausted - error class: "+exception+" - error message: "+exception.getMessage());
+            metrics.recovery(DemoMetrics.topicPartition(record));
+        }, new FixedBackOff(6000, 4));
+        circuitBreaker.holdRejectedRecords(errorHandler);
+        factory.setBatchErrorHandler(errorHandler);
+        return factory;
+    }
+
+    /**
+     * Worker pool for the batch listener's key ordered parallel processing.  Threads are only started once used.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor batchWorkerExecutor(final KafkaDemoProperties properties) {
+        final int workers = Math.max(1, properties.getBatch().getKeyOrderedWorkers());
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setThreadNamePrefix("batch-worker-");
+        return executor;
+    }
+
+    /**
+     * Worker pool for loading the processed event cache of newly assigned partitions in parallel.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor cacheWarmUpExecutor(final KafkaDemoProperties properties) {
+        final int threads = Math.max(1, properties.getProcessedEventCache().getWarmUpThreads());
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("cache-warm-up-");
+        return executor;
+    }
+
+    /**
+     * Worker pool for the hedged duplicate check reads of a blocking store.  With no queue, so a read is never held up
+     * behind others.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor hedgedLookupExecutor(final KafkaDemoProperties properties) {
+        final int threads = Math.max(1, properties.getHedgedLookup().getThreads());
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("hedged-lookup-");
+        return executor;
+    }
+
+    /**
+     * With transactions enabled, a send outside a listener's transaction, such as from a batch worker thread, is still
+     * allowed, and is made without a transaction.
+     */
     @Bean
     public KafkaTemplate<String, String> kafkaTemplate(final ProducerFactory<String, String> producerFactory) {
-        return new KafkaTemplate<>(producerFactory);
+        final KafkaTemplate<String, String> kafkaTemplate = new KafkaTemplate<>(producerFactory);
+        kafkaTemplate.setAllowNonTransactional(true);
+        return kafkaTemplate;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafkademo.transactions.enabled", havingValue = "true")
+    public KafkaTransactionManager<String, String> kafkaTransactionManager(final ProducerFactory<String, String> producerFactory) {
+        return new KafkaTransactionManager<>(producerFactory);
     }
 
+    /**
+     * The retries back off on the consumer thread, so with claims enabled, where a back off can wait out another
+     * instance's lease, their total must stay within the max poll interval or the consumer is evicted from the group.
+     */
     @Bean
-    public RetryTemplate retryTemplate() {
+    public RetryTemplate retryTemplate(@Value("${kafka.consumer.maxPollIntervalMs}") final long maxPollIntervalMs,
+                                       final KafkaDemoProperties properties, final DemoMetrics metrics) {
+        final Duration maxLeaseBackOff = properties.getClaim().getMaxLeaseBackOff();
+        final long maxTotalBackOffMs = (RETRY_MAX_ATTEMPTS - 1) * Math.max(RETRY_BACK_OFF_MS, maxLeaseBackOff.toMillis());
+        if (properties.getClaim().isEnabled() && maxTotalBackOffMs >= maxPollIntervalMs) {
+            throw new IllegalStateException("kafkademo.claim.maxLeaseBackOff " + maxLeaseBackOff + " allows the retries to back off for "
+                    + maxTotalBackOffMs + "ms, not within kafka.consumer.maxPollIntervalMs " + maxPollIntervalMs);
+        }
         return RetryTemplate.builder()
-                .fixedBackoff(6000)
-                .maxAttempts(5)
+                .customBackoff(new LeaseAwareBackOffPolicy(RETRY_BACK_OFF_MS, maxLeaseBackOff))
+                .maxAttempts(RETRY_MAX_ATTEMPTS)
+                // Rejected by the open circuit breaker, so held by the error handler instead.
+                .notRetryOn(CircuitBreakerOpenException.class)
+                .traversingCauses()
+                .withListener(new RetryMetricsListener(metrics))
                 .build();
     }
 
+    /**
+     * With the typed value deserializer, values are parsed from their bytes straight to DemoInboundEvent, saving the
+     * intermediate String.  It is wrapped in an ErrorHandlingDeserializer so that a value that cannot be parsed is
+     * delivered as a null value with the DeserializationException in a header, rather than failing the poll.
+     */
     @Bean
-    public ConsumerFactory<String, String> consumerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers,
-                                                           @Value("${kafka.consumer.maxPollIntervalMs}") final String maxPollIntervalMs) {
+    public ConsumerFactory<String, Object> consumerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers,
+                                                           @Value("${kafka.consumer.maxPollIntervalMs}") final String maxPollIntervalMs,
+                                                           @Value("${kafka.consumer.typedValueDeserializer}") final boolean typedValueDeserializer,
+                                                           final KafkaDemoProperties properties) {
         final Map<String, Object> config = new HashMap<>();
         config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ConsumerConfig.GROUP_ID_CONFIG, "demo-kafka");
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        if (typedValueDeserializer) {
+            config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+            config.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, DemoInboundEventDeserializer.class);
+        } else {
+            config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        }
         config.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, maxPollIntervalMs);
+        if (properties.getTransactions().isEnabled()) {
+            // Only consume inbound events from committed transactions.
+            config.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
         return new DefaultKafkaConsumerFactory<>(config);
     }
 
+    /**
+     * The batching settings only pay off when sends are pipelined, as with the batch listener's async send mode.  A
+     * synchronous send waits out the linger time on every record.
+     */
     @Bean
-    public ProducerFactory<String, String> producerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+    public ProducerFactory<String, String> producerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers,
+                                                           @Value("${kafka.producer.lingerMs}") final String lingerMs,
+                                                           @Value("${kafka.producer.batchSize}") final String batchSize,
+                                                           @Value("${kafka.producer.compressionType}") final String compressionType,
+                                                           @Value("${kafka.producer.enableIdempotence}") final String enableIdempotence,
+                                                           final KafkaDemoProperties properties) {
         final Map<String, Object> config = new HashMap<>();
         config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        return new DefaultKafkaProducerFactory<>(config);
+        config.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        config.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        config.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        config.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, enableIdempotence);
+        final DefaultKafkaProducerFactory<String, String> producerFactory = new DefaultKafkaProducerFactory<>(config);
+        if (properties.getTransactions().isEnabled()) {
+            // Unique to the instance, as with the BETA mode the transactional Ids are not tied to the partitions.
+            producerFactory.setTransactionIdPrefix(properties.getTransactions().getTransactionIdPrefix() + properties.getInstanceId() + "-");
+        }
+        return producerFactory;
     }
 }
@@ -0,0 +1,97 @@
+package demo.kafka;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import demo.kafka.circuitbreaker.ThirdpartyCircuitBreaker;
+import demo.kafka.consumer.KafkaIdempotentConsumer;
+import demo.kafka.exception.CircuitBreakerOpenException;
+import demo.kafka.exception.DynamoDbThrottledException;
+import demo.kafka.exception.EventLeaseHeldException;
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.properties.KafkaDemoProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.FailedRecordProcessor;
+import org.springframework.kafka.retrytopic.ListenerContainerFactoryConfigurer;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
+
+/**
+ * Non-blocking retries for the single record listener.
+ *
+ * A retryable failure is re-published to the next retry topic, each with a longer delay, and finally to the dead letter
+ * topic, so the consumer thread never sleeps on a backoff and the inbound partition keeps flowing.  The retried record
+ * keeps its event Id header, so it is still deduplicated against the idempotency store when it is retried.
+ *
+ * A record rejected by the open circuit breaker is held on its topic by the error handler, as with blocking retries,
+ * so a rejection never uses up an attempt, and no record is dead lettered however long the breaker stays open.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "kafkademo.retry-topics.enabled", havingValue = "true")
+public class RetryTopicsConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "kafkademo.batch.enabled", havingValue = "false", matchIfMissing = true)
+    public RetryTopicConfiguration retryTopicConfiguration(final KafkaDemoProperties properties, final KafkaTemplate<String, String> kafkaTemplate,
+                                                           @Value("${kafka.consumer.typedValueDeserializer}") final boolean typedValueDeserializer) {
+        if (typedValueDeserializer) {
+            // The template re-publishes the consumed value with the String serializer, so it must be consumed as a String.
+            throw new IllegalStateException("Retry topics are not supported with kafka.consumer.typedValueDeserializer");
+        }
+        final KafkaDemoProperties.RetryTopics config = properties.getRetryTopics();
+        log.info("Using retry topics with up to " + config.getMaxAttempts() + " attempts");
+        return RetryTopicConfigurationBuilder.newInstance()
+                .includeTopic("demo-inbound-topic")
+                .maxAttempts(config.getMaxAttempts())
+                // Randomise each delay so that events failing together are not all retried together.
+                .exponentialBackoff(config.getInitialBackOff().toMillis(), config.getMultiplier(), config.getMaxBackOff().toMillis(), true)
+                // A rejection by the open circuit breaker is held by the error handler, so only reaches the recoverer if
+                // that is not configured, in which case it moves on to the retry topic rather than the dead letter topic.
+                .retryOn(Arrays.asList(KafkaDemoRetryableException.class, EventLeaseHeldException.class, CircuitBreakerOpenException.class,
+                        DynamoDbThrottledException.class))
+                // The listener's exception arrives wrapped in a ListenerExecutionFailedException.
+                .traversingCauses()
+                .autoCreateTopicsWith(config.getTopicPartitions(), config.getTopicReplicationFactor())
+                .dltHandlerMethod(KafkaIdempotentConsumer.class, "listenDlt")
+                .create(kafkaTemplate);
+    }
+
+    /**
+     * Hold the records rejected by the open circuit breaker on the error handlers of the main and retry topic
+     * containers, which the retry topic support creates for itself.
+     */
+    @Bean
+    public static BeanPostProcessor retryTopicErrorHandlerCustomizer(final ObjectProvider<ThirdpartyCircuitBreaker> circuitBreaker) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+                if (bean instanceof ListenerContainerFactoryConfigurer) {
+                    ((ListenerContainerFactoryConfigurer) bean).setErrorHandlerCustomizer(errorHandler -> {
+                        if (errorHandler instanceof FailedRecordProcessor) {
+                            circuitBreaker.getObject().holdRejectedRecords((FailedRecordProcessor) errorHandler);
+                        }
+                    });
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Creates the retry and dead letter topics on the same cluster the listeners consume from.
+     */
+    @Bean
+    public KafkaAdmin kafkaAdmin(@Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+        return new KafkaAdmin(Collections.singletonMap(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers));
+    }
+}
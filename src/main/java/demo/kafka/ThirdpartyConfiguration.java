@@ -0,0 +1,59 @@
+package demo.kafka;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * The HTTP client for the third party service, shared by every event so that connections (and their TLS sessions) are
+ * pooled and kept alive between calls, with every call bounded by timeouts.
+ */
+@Configuration
+public class ThirdpartyConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager thirdpartyConnectionManager(final KafkaDemoProperties properties, final MeterRegistry meterRegistry) {
+        final KafkaDemoProperties.Thirdparty config = properties.getThirdparty();
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(config.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        // Check a connection idle this long is still open before reusing it, rather than failing the call.
+        connectionManager.setValidateAfterInactivity((int) config.getValidateAfterInactivity().toMillis());
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "thirdparty").bindTo(meterRegistry);
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient thirdpartyHttpClient(final KafkaDemoProperties properties, final PoolingHttpClientConnectionManager thirdpartyConnectionManager) {
+        final KafkaDemoProperties.Thirdparty config = properties.getThirdparty();
+        final long keepAliveMs = config.getKeepAlive().toMillis();
+        return HttpClients.custom()
+                .setConnectionManager(thirdpartyConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) config.getConnectTimeout().toMillis())
+                        .setSocketTimeout((int) config.getReadTimeout().toMillis())
+                        .setConnectionRequestTimeout((int) config.getConnectionRequestTimeout().toMillis())
+                        .build())
+                // Keep connections alive as long as the server allows, up to the configured keep alive.
+                .setKeepAliveStrategy((response, context) -> {
+                    final long serverKeepAliveMs = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return serverKeepAliveMs > 0 ? Math.min(serverKeepAliveMs, keepAliveMs) : keepAliveMs;
+                })
+                .evictExpiredConnections()
+                .build();
+    }
+
+    @Bean
+    public RestTemplate thirdpartyRestTemplate(final CloseableHttpClient thirdpartyHttpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(thirdpartyHttpClient));
+    }
+}
@@ -0,0 +1,179 @@
+package demo.kafka.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * A size and time bounded concurrent cache.
+ *
+ * Entries are spread over a fixed number of segments, each a LinkedHashMap guarded by its own lock, so callers only
+ * contend when their keys fall in the same segment.  Each segment holds its share of the maximum entries and evicts in
+ * least recently used or first in first out order.  Entries older than the time to live are treated as absent, and are
+ * removed when next looked up or when they reach the eviction end of their segment.
+ */
+public class BoundedCache<K, V> {
+
+    public enum EvictionPolicy { LRU, FIFO }
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final List<Segment> segments;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public BoundedCache(final int maxEntries, final Duration ttl, final EvictionPolicy evictionPolicy) {
+        this(maxEntries, ttl, evictionPolicy, Math.min(MAX_SEGMENTS, maxEntries), System::nanoTime);
+    }
+
+    BoundedCache(final int maxEntries, final Duration ttl, final EvictionPolicy evictionPolicy, final int segmentCount, final LongSupplier nanoClock) {
+        if (maxEntries < 1 || segmentCount < 1 || segmentCount > maxEntries) {
+            throw new IllegalArgumentException("maxEntries must be at least 1 and at least the segment count: " + maxEntries);
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+        this.segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            // Spread any remainder over the first segments so the capacities sum to maxEntries.
+            final int capacity = maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0);
+            segments.add(new Segment(capacity, evictionPolicy == EvictionPolicy.LRU));
+        }
+    }
+
+    /**
+     * Return the cached value, or null if the key is absent or its entry has expired.
+     */
+    public V get(final K key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final Entry<V> entry = segment.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (isExpired(entry)) {
+                segment.remove(key);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    public void put(final K key, final V value) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            // Remove first so that a re-put entry moves to the most recent end in FIFO order too.
+            segment.remove(key);
+            segment.put(key, new Entry<>(value, nanoClock.getAsLong() + ttlNanos));
+        }
+    }
+
+    public void remove(final K key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Remove every entry matching the given predicate, returning the number removed.
+     */
+    public int removeIf(final BiPredicate<K, V> predicate) {
+        int removed = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                final Iterator<Map.Entry<K, Entry<V>>> iterator = segment.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    final Map.Entry<K, Entry<V>> entry = iterator.next();
+                    if (predicate.test(entry.getKey(), entry.getValue().value)) {
+                        iterator.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    private Segment segmentFor(final K key) {
+        final int hash = key.hashCode();
+        // Mix the high bits in, as String hash codes of similar keys differ mostly in the low bits.
+        return segments.get(Math.floorMod(hash ^ (hash >>> 16), segments.size()));
+    }
+
+    private boolean isExpired(final Entry<V> entry) {
+        return nanoClock.getAsLong() - entry.expiresAtNanos >= 0;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAtNanos;
+
+        private Entry(final V value, final long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private class Segment extends LinkedHashMap<K, Entry<V>> {
+        private final int capacity;
+
+        private Segment(final int capacity, final boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+            if (isExpired(eldest.getValue())) {
+                expirations.incrementAndGet();
+                return true;
+            }
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package demo.kafka.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * A single append-only file of the processed event log, memory-mapped at its full size when created.
+ *
+ * Each entry is the length of the event Id, the time it was written and the event Id's UTF-8 bytes.  The length is
+ * written last, so an entry interrupted by the process dying reads as the end of the segment.  The unwritten remainder
+ * of the file is zeros, so the first zero length also marks the end.
+ */
+class LogSegment {
+
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private int position;
+    private volatile long lastWriteMillis;
+
+    private LogSegment(final Path path, final MappedByteBuffer buffer, final int position, final long lastWriteMillis) {
+        this.path = path;
+        this.buffer = buffer;
+        this.position = position;
+        this.lastWriteMillis = lastWriteMillis;
+    }
+
+    /**
+     * Create a new empty segment of the given size, mapped for writing.
+     */
+    static LogSegment create(final Path path, final int capacity, final long nowMillis) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed.
+            return new LogSegment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), 0, nowMillis);
+        }
+    }
+
+    /**
+     * Read an existing segment, passing each event Id written since the given time to the consumer.  The segment is
+     * opened read only, as new entries are only ever appended to a newly created segment.
+     */
+    static LogSegment read(final Path path, final long writtenSinceMillis, final Consumer<String> eventIds) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int position = 0;
+            long lastWriteMillis = 0;
+            while (position + HEADER_BYTES <= buffer.limit()) {
+                final int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_BYTES + length > buffer.limit()) {
+                    break;
+                }
+                final long writtenMillis = buffer.getLong(position + Integer.BYTES);
+                final byte[] bytes = new byte[length];
+                buffer.duplicate().position(position + HEADER_BYTES).get(bytes);
+                if (writtenMillis > writtenSinceMillis) {
+                    eventIds.accept(new String(bytes, StandardCharsets.UTF_8));
+                }
+                lastWriteMillis = Math.max(lastWriteMillis, writtenMillis);
+                position += HEADER_BYTES + length;
+            }
+            return new LogSegment(path, null, position, lastWriteMillis);
+        }
+    }
+
+    /**
+     * The bytes the event Id's entry takes in a segment.
+     */
+    static int entryBytes(final String eventId) {
+        return HEADER_BYTES + eventId.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Append the event Id, returning false if the segment is full (or was opened read only).
+     */
+    synchronized boolean append(final String eventId, final long nowMillis) {
+        final byte[] bytes = eventId.getBytes(StandardCharsets.UTF_8);
+        if (buffer == null || position + HEADER_BYTES + bytes.length > buffer.limit()) {
+            return false;
+        }
+        buffer.putLong(position + Integer.BYTES, nowMillis);
+        ((ByteBuffer) buffer.duplicate().position(position + HEADER_BYTES)).put(bytes);
+        buffer.putInt(position, bytes.length);
+        position += HEADER_BYTES + bytes.length;
+        lastWriteMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * Write the appended entries through to the file.  Entries survive the process dying without this, as they are
+     * already in the page cache, but not the host failing.
+     */
+    synchronized void flush() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    long getLastWriteMillis() {
+        return lastWriteMillis;
+    }
+
+    Path getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,117 @@
+package demo.kafka.cache;
+
+import java.util.Collection;
+
+import javax.annotation.PreDestroy;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process cache of the event Ids this instance has recently seen recorded in the ProcessedEvent table.
+ *
+ * The cache only ever answers that an event has been processed.  A miss says nothing, and the caller must fall through
+ * to the ProcessedEvent table, so only event Ids confirmed by the table are ever added.
+ *
+ * Each event Id is held with the partition it was consumed from, where known, so that the entries of a revoked
+ * partition can be evicted.
+ */
+@Slf4j
+@Component
+public class ProcessedEventCache {
+
+    // Held for event Ids found by a lookup across partitions, so never evicted by partition.
+    private static final TopicPartition UNKNOWN_PARTITION = new TopicPartition("", -1);
+
+    private final BoundedCache<String, TopicPartition> cache;
+
+    private final ProcessedEventLog eventLog;
+
+    public ProcessedEventCache(final KafkaDemoProperties properties, final MeterRegistry meterRegistry) {
+        final KafkaDemoProperties.ProcessedEventCache config = properties.getProcessedEventCache();
+        this.cache = config.isEnabled()
+                ? new BoundedCache<>(config.getMaxEntries(), config.getTtl(), config.getEvictionPolicy())
+                : null;
+        if (cache != null) {
+            FunctionCounter.builder("kafkademo.processed.event.cache.hits", this, ProcessedEventCache::getHits).register(meterRegistry);
+            FunctionCounter.builder("kafkademo.processed.event.cache.misses", this, ProcessedEventCache::getMisses).register(meterRegistry);
+            FunctionCounter.builder("kafkademo.processed.event.cache.evictions", this, ProcessedEventCache::getEvictions).register(meterRegistry);
+            Gauge.builder("kafkademo.processed.event.cache.size", cache, BoundedCache::size).register(meterRegistry);
+        }
+        this.eventLog = config.isLogEnabled() ? new ProcessedEventLog(config) : null;
+        if (eventLog != null) {
+            if (config.getLogRetention().plus(config.getLogSegmentDuration()).compareTo(properties.getDynamodb().getRetention()) > 0) {
+                log.warn("Processed event log retention " + config.getLogRetention() + " plus segment duration " + config.getLogSegmentDuration()
+                        + " exceeds the DynamoDB retention " + properties.getDynamodb().getRetention());
+            }
+            FunctionCounter.builder("kafkademo.processed.event.log.hits", eventLog, ProcessedEventLog::getHits).register(meterRegistry);
+            FunctionCounter.builder("kafkademo.processed.event.log.misses", eventLog, ProcessedEventLog::getMisses).register(meterRegistry);
+            Gauge.builder("kafkademo.processed.event.log.size", eventLog, ProcessedEventLog::size).register(meterRegistry);
+            Gauge.builder("kafkademo.processed.event.log.segments", eventLog, ProcessedEventLog::getSegmentCount).register(meterRegistry);
+        }
+    }
+
+    /**
+     * Return true if the event is known to have been processed, false if it is not in the cache.
+     */
+    public boolean isProcessed(final String eventId) {
+        if (cache != null && cache.get(eventId) != null) {
+            return true;
+        }
+        if (eventLog != null && eventLog.contains(eventId)) {
+            if (cache != null) {
+                cache.put(eventId, UNKNOWN_PARTITION);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public void markProcessed(final String eventId) {
+        markProcessed(eventId, UNKNOWN_PARTITION);
+    }
+
+    public void markProcessed(final String eventId, final TopicPartition topicPartition) {
+        if (cache != null) {
+            cache.put(eventId, topicPartition);
+        }
+        if (eventLog != null) {
+            eventLog.append(eventId);
+        }
+    }
+
+    /**
+     * Evict the entries of the given partitions, returning the number evicted.
+     */
+    public int evict(final Collection<TopicPartition> topicPartitions) {
+        return cache != null ? cache.removeIf((eventId, topicPartition) -> topicPartitions.contains(topicPartition)) : 0;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (eventLog != null) {
+            eventLog.flush();
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    public long getHits() {
+        return cache != null ? cache.getHits() : 0;
+    }
+
+    public long getMisses() {
+        return cache != null ? cache.getMisses() : 0;
+    }
+
+    public long getEvictions() {
+        return cache != null ? cache.getEvictions() + cache.getExpirations() : 0;
+    }
+}
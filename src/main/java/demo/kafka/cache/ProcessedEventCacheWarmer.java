@@ -0,0 +1,78 @@
+package demo.kafka.cache;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.IdempotencyStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Warms up the processed event cache for the partitions newly assigned to this instance, so that the records
+ * redelivered after a rebalance are found in the cache rather than each looked up in the idempotency store.
+ *
+ * The partitions are loaded in parallel on the warm-up pool, and assignment waits for them only up to the warm-up
+ * timeout.  A partition that takes longer is still added to the cache once loaded, but its first records may be looked
+ * up as before.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class ProcessedEventCacheWarmer {
+
+    final IdempotencyStore idempotencyStore;
+    final ProcessedEventCache processedEventCache;
+    final KafkaDemoProperties properties;
+    final AsyncTaskExecutor cacheWarmUpExecutor;
+
+    public boolean isEnabled() {
+        return processedEventCache.isEnabled() && properties.getProcessedEventCache().isWarmUpEnabled();
+    }
+
+    public void warmUp(final Collection<TopicPartition> topicPartitions) {
+        if (!isEnabled() || topicPartitions.isEmpty()) {
+            return;
+        }
+        final KafkaDemoProperties.ProcessedEventCache config = properties.getProcessedEventCache();
+        final long start = System.currentTimeMillis();
+        final Map<TopicPartition, CompletableFuture<Integer>> loads = new LinkedHashMap<>();
+        topicPartitions.forEach(topicPartition -> loads.put(topicPartition,
+                CompletableFuture.supplyAsync(() -> load(topicPartition, config.getWarmUpMaxEventsPerPartition()), cacheWarmUpExecutor)));
+        try {
+            CompletableFuture.allOf(loads.values().toArray(new CompletableFuture<?>[0]))
+                    .get(config.getWarmUpTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Processed event cache warm-up did not complete within " + config.getWarmUpTimeout() + " for partitions: "
+                    + loads.entrySet().stream().filter(load -> !load.getValue().isDone()).map(Map.Entry::getKey).collect(Collectors.toList()));
+        } catch (ExecutionException e) {
+            log.warn("Processed event cache warm-up failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final int loaded = loads.values().stream().filter(load -> load.isDone() && !load.isCompletedExceptionally()).mapToInt(CompletableFuture::join).sum();
+        log.info("Processed event cache warmed up with {} event Ids for {} partitions in {}ms", loaded, topicPartitions.size(), System.currentTimeMillis() - start);
+    }
+
+    public void evict(final Collection<TopicPartition> topicPartitions) {
+        if (isEnabled() && !topicPartitions.isEmpty()) {
+            final int evicted = processedEventCache.evict(topicPartitions);
+            log.debug("Evicted {} event Ids of revoked partitions {} from the processed event cache", evicted, topicPartitions);
+        }
+    }
+
+    private int load(final TopicPartition topicPartition, final int limit) {
+        final Collection<String> eventIds = idempotencyStore.findRecentlyProcessed(topicPartition, limit);
+        eventIds.forEach(eventId -> processedEventCache.markProcessed(eventId, topicPartition));
+        return eventIds.size();
+    }
+}
@@ -0,0 +1,198 @@
+package demo.kafka.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A local, persistent record of the event Ids recently confirmed as processed, so that after a restart the duplicates
+ * redelivered are still found without a lookup in the ProcessedEvent table.
+ *
+ * The event Ids are appended to memory-mapped segment files, and held in an in-memory index of the segment each was
+ * last written to.  On start up the index is rebuilt by reading the segments left by the previous run, and a new segment
+ * is started.  A segment is rolled when full or when it reaches the segment duration, and whole segments are deleted
+ * once their last entry is older than the retention.  So an event Id is held for at least the retention, and at most
+ * the retention plus the segment duration.  The event Ids written to each segment are kept alongside it, so deleting a
+ * segment removes just its own entries from the index, which only ever holds the event Ids of the live segments.
+ *
+ * As with the processed event cache, only event Ids confirmed by the table are added, and a miss says nothing.
+ */
+@Slf4j
+public class ProcessedEventLog {
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long segmentDurationMillis;
+    private final long retentionMillis;
+    private final LongSupplier clock;
+
+    private final Map<String, LogSegment> index = new ConcurrentHashMap<>();
+    // Oldest first, with the active segment last.  Guarded by this.
+    private final Deque<LogSegment> segments = new ArrayDeque<>();
+    // The event Ids written to each segment.  Guarded by this.
+    private final Map<LogSegment, List<String>> segmentEventIds = new HashMap<>();
+    private LogSegment active;
+    private long activeCreatedMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ProcessedEventLog(final KafkaDemoProperties.ProcessedEventCache config) {
+        this(Paths.get(config.getLogDirectory()), config.getLogSegmentBytes(), config.getLogSegmentDuration(), config.getLogRetention(),
+                System::currentTimeMillis);
+    }
+
+    ProcessedEventLog(final Path directory, final int segmentBytes, final Duration segmentDuration, final Duration retention, final LongSupplier clock) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentDurationMillis = segmentDuration.toMillis();
+        this.retentionMillis = retention.toMillis();
+        this.clock = clock;
+        load();
+    }
+
+    /**
+     * Return true if the event Id was written within the retention, false if it is not in the log.
+     */
+    public boolean contains(final String eventId) {
+        final LogSegment segment = index.get(eventId);
+        if (segment != null && !isExpired(segment, clock.getAsLong())) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Append the event Id, unless already held.  A failure to write the log is logged and the event Id dropped, as the
+     * table still holds it.  So is an event Id too long to fit even an empty segment, without rolling one for it.
+     */
+    public synchronized void append(final String eventId) {
+        if (LogSegment.entryBytes(eventId) > segmentBytes) {
+            log.warn("Event Id of " + eventId.length() + " characters is too long for a processed event log segment of " + segmentBytes + " bytes");
+            return;
+        }
+        final long now = clock.getAsLong();
+        final LogSegment held = index.get(eventId);
+        if (held != null && !isExpired(held, now)) {
+            return;
+        }
+        if (active == null || now - activeCreatedMillis >= segmentDurationMillis || !active.append(eventId, now)) {
+            roll(now);
+            if (active == null || !active.append(eventId, now)) {
+                return;
+            }
+        }
+        index.put(eventId, active);
+        segmentEventIds.get(active).add(eventId);
+    }
+
+    public synchronized void flush() {
+        if (active != null) {
+            active.flush();
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Rebuild the index from the segments on disk, oldest first so the index holds the latest segment for each event Id.
+     * Segments with nothing left within the retention are deleted.
+     */
+    private synchronized void load() {
+        final long start = clock.getAsLong();
+        try {
+            Files.createDirectories(directory);
+            final List<Path> paths;
+            try (Stream<Path> files = Files.list(directory)) {
+                paths = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().collect(Collectors.toList());
+            }
+            for (final Path path : paths) {
+                final List<String> eventIds = new ArrayList<>();
+                final LogSegment segment = LogSegment.read(path, start - retentionMillis, eventIds::add);
+                if (eventIds.isEmpty()) {
+                    segment.delete();
+                } else {
+                    eventIds.forEach(eventId -> index.put(eventId, segment));
+                    segments.addLast(segment);
+                    segmentEventIds.put(segment, eventIds);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to load the processed event log from " + directory + ": " + e.getMessage());
+        }
+        log.info("Processed event log loaded {} event Ids from {} segments in {}ms", index.size(), segments.size(), clock.getAsLong() - start);
+    }
+
+    private void roll(final long now) {
+        if (active != null) {
+            active.flush();
+            active = null;
+        }
+        expire(now);
+        try {
+            // Zero padded so that the segments sort by name in the order they were created.
+            long created = now;
+            Path path = directory.resolve(String.format("%020d%s", created, SEGMENT_SUFFIX));
+            while (Files.exists(path)) {
+                path = directory.resolve(String.format("%020d%s", ++created, SEGMENT_SUFFIX));
+            }
+            active = LogSegment.create(path, segmentBytes, now);
+            activeCreatedMillis = now;
+            segments.addLast(active);
+            segmentEventIds.put(active, new ArrayList<>());
+        } catch (IOException e) {
+            log.warn("Unable to create a processed event log segment in " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private void expire(final long now) {
+        while (!segments.isEmpty() && isExpired(segments.peekFirst(), now)) {
+            final LogSegment expired = segments.removeFirst();
+            // An event Id written again since is held by the later segment, so is left in the index.
+            segmentEventIds.remove(expired).forEach(eventId -> index.remove(eventId, expired));
+            try {
+                expired.delete();
+            } catch (IOException e) {
+                log.warn("Unable to delete processed event log segment " + expired.getPath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean isExpired(final LogSegment segment, final long now) {
+        return segment.getLastWriteMillis() + retentionMillis <= now;
+    }
+}
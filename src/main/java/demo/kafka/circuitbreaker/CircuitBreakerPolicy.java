@@ -0,0 +1,117 @@
+package demo.kafka.circuitbreaker;
+
+import demo.kafka.circuitbreaker.ThirdpartyCircuitBreaker.State;
+import demo.kafka.properties.KafkaDemoProperties;
+
+/**
+ * Decides whether a call is let through, from the outcomes of the recent calls.
+ *
+ * While closed every call is let through, and the outcomes of the last calls are kept in a sliding window.  Once the
+ * fraction that failed reaches the threshold the breaker opens, and no call is let through until it is half opened.
+ * Half open, only the probe calls are let through.  If they all succeed the breaker closes with an empty window, and if
+ * any fails it opens again.  The outcomes of calls that were let through before the breaker opened are ignored.
+ */
+class CircuitBreakerPolicy {
+
+    private final KafkaDemoProperties.CircuitBreaker config;
+
+    // The outcomes of the last calls, true for a failure, written in turn from next.
+    private final boolean[] outcomes;
+
+    private int calls;
+
+    private int next;
+
+    private int failures;
+
+    private State state = State.CLOSED;
+
+    private int probesLetThrough;
+
+    private int probeSuccesses;
+
+    CircuitBreakerPolicy(final KafkaDemoProperties.CircuitBreaker config) {
+        this.config = config;
+        this.outcomes = new boolean[Math.max(1, config.getSlidingWindowSize())];
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized double getFailureRate() {
+        return calls == 0 ? 0 : (double) failures / calls;
+    }
+
+    synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && probesLetThrough < config.getHalfOpenProbes()) {
+            probesLetThrough++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a successful call, returning true if it closed the breaker.
+     */
+    synchronized boolean onSuccess() {
+        if (state == State.CLOSED) {
+            record(false);
+        } else if (state == State.HALF_OPEN && ++probeSuccesses >= config.getHalfOpenProbes()) {
+            state = State.CLOSED;
+            calls = 0;
+            next = 0;
+            failures = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a failed call, returning true if it opened the breaker.
+     */
+    synchronized boolean onFailure() {
+        if (state == State.CLOSED) {
+            record(true);
+            if (calls >= config.getMinimumCalls() && getFailureRate() >= config.getFailureRateThreshold()) {
+                state = State.OPEN;
+                return true;
+            }
+        } else if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Let the probe calls through, returning true if the breaker was open.
+     */
+    synchronized boolean halfOpen() {
+        if (state != State.OPEN) {
+            return false;
+        }
+        state = State.HALF_OPEN;
+        probesLetThrough = 0;
+        probeSuccesses = 0;
+        return true;
+    }
+
+    private void record(final boolean failure) {
+        if (calls == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+}
@@ -0,0 +1,179 @@
+package demo.kafka.circuitbreaker;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import demo.kafka.consumer.KafkaIdempotentConsumer;
+import demo.kafka.exception.CircuitBreakerOpenException;
+import demo.kafka.exception.Retryable;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.FailedRecordProcessor;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.backoff.FixedBackOff;
+
+/**
+ * Circuit breaker around the calls to the third party service.
+ *
+ * Only a retryable failure, a server error or no response, counts as a failure.  When the breaker opens, the inbound
+ * listener containers are paused rather than each record burning through its retries.  A paused consumer keeps polling,
+ * so it stays in the group, but is returned no records.  After the open duration the breaker is half opened and the
+ * containers resumed, and the first records redelivered are the probes that decide whether it closes or opens again.
+ *
+ * A record rejected by the breaker fails with a CircuitBreakerOpenException, which the error handlers hold for
+ * redelivery without limit rather than recovering it, so no record is skipped however long the breaker stays open.
+ *
+ * The state is reported as a detail of the actuator health endpoint, which stays up whatever the state, so that a
+ * liveness probe on it does not restart an instance for the third party service's outage.
+ */
+@Slf4j
+@Component
+public class ThirdpartyCircuitBreaker implements HealthIndicator {
+
+    private static final String NAME = "thirdparty";
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final KafkaListenerEndpointRegistry registry;
+
+    private final KafkaDemoProperties.CircuitBreaker config;
+
+    private final CircuitBreakerPolicy policy;
+
+    private ScheduledExecutorService scheduler;
+
+    public ThirdpartyCircuitBreaker(final KafkaListenerEndpointRegistry registry, final KafkaDemoProperties properties,
+                                    final MeterRegistry meterRegistry) {
+        this.registry = registry;
+        this.config = properties.getCircuitBreaker();
+        this.policy = new CircuitBreakerPolicy(config);
+        if (config.isEnabled()) {
+            Gauge.builder("kafkademo.thirdparty.circuit.state", policy, p -> p.getState().ordinal())
+                    .description("Third party circuit breaker state: 0 closed, 1 open, 2 half open")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    public State getState() {
+        return policy.getState();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (isEnabled()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "circuit-breaker"));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Make the call if the breaker lets it through, else fail with a CircuitBreakerOpenException.
+     */
+    public void execute(final Runnable call) {
+        if (!isEnabled()) {
+            call.run();
+            return;
+        }
+        if (!policy.tryAcquire()) {
+            throw new CircuitBreakerOpenException(NAME);
+        }
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            if (e instanceof Retryable) {
+                if (policy.onFailure()) {
+                    opened();
+                }
+            } else {
+                succeeded();
+            }
+            throw e;
+        }
+        succeeded();
+    }
+
+    /**
+     * Hold the records rejected by the breaker for redelivery without limit, each after the rejected back off.  Other
+     * failures keep the error handler's own back off, which starts afresh when a rejected record then fails otherwise.
+     */
+    public void holdRejectedRecords(final FailedRecordProcessor errorHandler) {
+        errorHandler.setBackOffFunction((record, exception) -> isRejection(exception)
+                ? new FixedBackOff(config.getRejectedBackOff().toMillis(), FixedBackOff.UNLIMITED_ATTEMPTS)
+                : null);
+        errorHandler.setResetStateOnExceptionChange(true);
+    }
+
+    public static boolean isRejection(final Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitBreakerOpenException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Health health() {
+        if (!isEnabled()) {
+            return Health.up().withDetail("enabled", false).build();
+        }
+        final State state = policy.getState();
+        return Health.up()
+                .withDetail("state", state)
+                .withDetail("failureRate", policy.getFailureRate())
+                .withDetail("pausedContainers", containers().stream().filter(MessageListenerContainer::isPauseRequested).count())
+                .build();
+    }
+
+    private void succeeded() {
+        if (policy.onSuccess()) {
+            log.info("Circuit breaker for {} closed", NAME);
+        }
+    }
+
+    private void opened() {
+        log.warn("Circuit breaker for {} opened at failure rate {}, pausing the listeners for {}", NAME, policy.getFailureRate(), config.getOpenDuration());
+        containers().forEach(MessageListenerContainer::pause);
+        scheduler.schedule(this::halfOpen, config.getOpenDuration().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void halfOpen() {
+        if (policy.halfOpen()) {
+            log.info("Circuit breaker for {} half open, resuming the listeners", NAME);
+            containers().forEach(MessageListenerContainer::resume);
+        }
+    }
+
+    /**
+     * The containers consuming for the inbound consumer group, including those of any retry topics.
+     */
+    private List<MessageListenerContainer> containers() {
+        return registry.getListenerContainers().stream()
+                .filter(container -> container.getGroupId() != null && container.getGroupId().startsWith(KafkaIdempotentConsumer.GROUP_ID))
+                .collect(Collectors.toList());
+    }
+}
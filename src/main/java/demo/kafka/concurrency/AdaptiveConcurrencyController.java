@@ -0,0 +1,182 @@
+package demo.kafka.concurrency;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import demo.kafka.consumer.KafkaIdempotentConsumer;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.listener.RecordInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Scales the consumer threads of the single record listener's container between the configured bounds, as decided by
+ * the ConcurrencyPolicy every evaluation interval.
+ *
+ * The lag is the sum of the consumers' records-lag metrics over their assigned partitions.  The time to process a
+ * record is measured as a record interceptor, from before the listener is called until it returns, so it includes any
+ * retries.  A container's concurrency only takes effect on start, so each change stops and restarts the container.
+ */
+@Slf4j
+@Component
+public class AdaptiveConcurrencyController implements RecordInterceptor<String, Object> {
+
+    private static final String FETCH_MANAGER_METRICS = "consumer-fetch-manager-metrics";
+    private static final String RECORDS_LAG = "records-lag";
+
+    private final KafkaListenerEndpointRegistry registry;
+
+    private final KafkaDemoProperties.Concurrency config;
+
+    private final ConcurrencyPolicy policy;
+
+    private final ThreadLocal<Long> recordStartNanos = new ThreadLocal<>();
+
+    private final LongAdder recordNanos = new LongAdder();
+
+    private final LongAdder records = new LongAdder();
+
+    // The mean of the last evaluation interval in which records were processed.
+    private volatile double meanRecordSeconds = Double.NaN;
+
+    private ScheduledExecutorService scheduler;
+
+    public AdaptiveConcurrencyController(final KafkaListenerEndpointRegistry registry, final KafkaDemoProperties properties,
+                                         final MeterRegistry meterRegistry) {
+        this.registry = registry;
+        this.config = properties.getConcurrency();
+        this.policy = new ConcurrencyPolicy(config, System.currentTimeMillis());
+        if (config.isAdaptive()) {
+            Gauge.builder("kafkademo.listener.concurrency", this, AdaptiveConcurrencyController::getConcurrency)
+                    .description("Consumer threads of the single record listener")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isAdaptive();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (isEnabled()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "concurrency-controller"));
+            final long intervalMs = config.getEvaluationInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(this::evaluate, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            log.info("Adaptive listener concurrency between {} and {} threads", config.getMin(), config.getMax());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public ConsumerRecord<String, Object> intercept(final ConsumerRecord<String, Object> record, final Consumer<String, Object> consumer) {
+        recordStartNanos.set(System.nanoTime());
+        return record;
+    }
+
+    /**
+     * Still abstract in this version of spring-kafka, but the container only calls the variant with the consumer.
+     */
+    @Deprecated
+    @Override
+    public ConsumerRecord<String, Object> intercept(final ConsumerRecord<String, Object> record) {
+        return record;
+    }
+
+    @Override
+    public void success(final ConsumerRecord<String, Object> record, final Consumer<String, Object> consumer) {
+        recordProcessed();
+    }
+
+    @Override
+    public void failure(final ConsumerRecord<String, Object> record, final Exception exception, final Consumer<String, Object> consumer) {
+        recordProcessed();
+    }
+
+    private void recordProcessed() {
+        final Long startNanos = recordStartNanos.get();
+        if (startNanos != null) {
+            recordNanos.add(System.nanoTime() - startNanos);
+            records.increment();
+            recordStartNanos.remove();
+        }
+    }
+
+    void evaluate() {
+        try {
+            final ConcurrentMessageListenerContainer<?, ?> container = container();
+            if (container == null || !container.isRunning()) {
+                return;
+            }
+            final int assignedPartitions = container.getAssignedPartitions().size();
+            final long processed = records.sumThenReset();
+            final long processedNanos = recordNanos.sumThenReset();
+            if (processed > 0) {
+                meanRecordSeconds = processedNanos / 1e9 / processed;
+            }
+            if (assignedPartitions == 0 || Double.isNaN(meanRecordSeconds)) {
+                return;
+            }
+            final long lag = lag(container);
+            final int current = container.getConcurrency();
+            final int next = policy.evaluate(current, assignedPartitions, lag, meanRecordSeconds, System.currentTimeMillis());
+            log.debug("Listener concurrency {} with lag {} over {} partitions at {}ms per record", current, lag, assignedPartitions, meanRecordSeconds * 1000);
+            if (next != current) {
+                log.info("Scaling listener concurrency from {} to {} for lag {} over {} partitions at {}ms per record",
+                        current, next, lag, assignedPartitions, meanRecordSeconds * 1000);
+                container.stop();
+                container.setConcurrency(next);
+                container.start();
+            }
+        } catch (Exception e) {
+            // Caught, as an exception would cancel the scheduled evaluations.
+            log.warn("Unable to evaluate listener concurrency: " + e.getMessage(), e);
+        }
+    }
+
+    private double getConcurrency() {
+        final ConcurrentMessageListenerContainer<?, ?> container = container();
+        return container != null ? container.getConcurrency() : Double.NaN;
+    }
+
+    private ConcurrentMessageListenerContainer<?, ?> container() {
+        final MessageListenerContainer container = registry.getListenerContainer(KafkaIdempotentConsumer.LISTENER_ID);
+        return container instanceof ConcurrentMessageListenerContainer ? (ConcurrentMessageListenerContainer<?, ?>) container : null;
+    }
+
+    private static long lag(final ConcurrentMessageListenerContainer<?, ?> container) {
+        double lag = 0;
+        for (final Map<MetricName, ? extends Metric> metrics : container.metrics().values()) {
+            for (final Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+                if (RECORDS_LAG.equals(metric.getKey().name()) && FETCH_MANAGER_METRICS.equals(metric.getKey().group())) {
+                    final Object value = metric.getValue().metricValue();
+                    if (value instanceof Double && !((Double) value).isNaN()) {
+                        lag += (Double) value;
+                    }
+                }
+            }
+        }
+        return (long) lag;
+    }
+}
@@ -0,0 +1,68 @@
+package demo.kafka.concurrency;
+
+import demo.kafka.properties.KafkaDemoProperties;
+
+/**
+ * Decides the listener concurrency from the consumer lag and the mean time to process a record.
+ *
+ * The lag is worked off at one record per mean record time on each thread.  When that would take longer than the target
+ * drain time, the concurrency needed to meet the target is scaled up to in one step.  When one thread fewer would still
+ * work it off well within the target, one thread is removed.  Either decision must hold for several consecutive
+ * evaluations, and is not acted on within the cooldown of the last change, as every change rebalances the group.
+ */
+class ConcurrencyPolicy {
+
+    private final KafkaDemoProperties.Concurrency config;
+
+    private int scaleUpStreak;
+
+    private int scaleDownStreak;
+
+    private long lastChangeMs;
+
+    ConcurrencyPolicy(final KafkaDemoProperties.Concurrency config, final long startMs) {
+        this.config = config;
+        // The initial concurrency counts as a change, so it is kept for at least the cooldown.
+        this.lastChangeMs = startMs;
+    }
+
+    /**
+     * Return the concurrency to change to, or the current concurrency to keep it.
+     */
+    int evaluate(final int current, final int assignedPartitions, final long lag, final double meanRecordSeconds, final long nowMs) {
+        final int ceiling = Math.max(1, Math.min(config.getMax(), assignedPartitions));
+        final int floor = Math.max(1, Math.min(config.getMin(), ceiling));
+        final double workSeconds = lag * meanRecordSeconds;
+        final double targetSeconds = config.getTargetDrainTime().toMillis() / 1000.0;
+
+        int desired = current;
+        if (workSeconds / current > targetSeconds) {
+            desired = (int) Math.ceil(workSeconds / targetSeconds);
+        } else if (current > 1 && workSeconds / (current - 1) < targetSeconds * config.getScaleDownRatio()) {
+            desired = current - 1;
+        }
+        desired = Math.max(floor, Math.min(ceiling, desired));
+
+        if (desired > current) {
+            scaleUpStreak++;
+            scaleDownStreak = 0;
+        } else if (desired < current) {
+            scaleDownStreak++;
+            scaleUpStreak = 0;
+        } else {
+            scaleUpStreak = 0;
+            scaleDownStreak = 0;
+        }
+
+        if (nowMs - lastChangeMs < config.getCooldown().toMillis()) {
+            return current;
+        }
+        if (scaleUpStreak >= config.getScaleUpEvaluations() || scaleDownStreak >= config.getScaleDownEvaluations()) {
+            scaleUpStreak = 0;
+            scaleDownStreak = 0;
+            lastChangeMs = nowMs;
+            return desired;
+        }
+        return current;
+    }
+}
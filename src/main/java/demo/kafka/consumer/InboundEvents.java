@@ -0,0 +1,29 @@
+package demo.kafka.consumer;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.mapper.JsonMapper;
+import demo.kafka.mapper.MappingException;
+
+/**
+ * Reads the DemoInboundEvent from a record value, which is either the event itself, with the typed value deserializer,
+ * or its JSON String.
+ */
+final class InboundEvents {
+
+    private InboundEvents() {
+    }
+
+    /**
+     * @throws MappingException if the value is not a valid event.  A null value is one that failed typed deserialization,
+     * with the cause in the record's ErrorHandlingDeserializer header.
+     */
+    static DemoInboundEvent read(final Object value) throws MappingException {
+        if (value instanceof DemoInboundEvent) {
+            return (DemoInboundEvent) value;
+        }
+        if (value instanceof String) {
+            return JsonMapper.readFromJson((String) value, DemoInboundEvent.class);
+        }
+        throw new MappingException(new IllegalArgumentException("Unable to read event from value: " + value));
+    }
+}
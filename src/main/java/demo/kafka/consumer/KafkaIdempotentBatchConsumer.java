@@ -0,0 +1,272 @@
+package demo.kafka.consumer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.exception.Retryable;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.mapper.MappingException;
+import demo.kafka.metrics.DemoMetrics;
+import demo.kafka.metrics.DemoMetrics.DuplicateSource;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.service.DemoService;
+import demo.kafka.watermark.OffsetWatermarks;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+/**
+ * Consumes each poll as a single batch.
+ *
+ * The event Ids of the whole batch are checked against the ProcessedEvent table up front, and the records already
+ * processed (or repeated within the batch) are dropped before any processing starts.
+ *
+ * With async sends, the outbound events of the whole batch are in flight together.  The events are only recorded as
+ * processed once their sends are acknowledged, and the listener does not return, so the offsets are not committed,
+ * until every send has completed.
+ *
+ * With key ordered workers, the records are grouped by partition and key, and the groups processed in parallel on the
+ * batch worker pool, each group in offset order.  A retryable failure stops only its own group.  The batch is then
+ * failed at the earliest failed record, so offsets are committed only up to it, and the records after it that did
+ * complete are dropped as duplicates on redelivery.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+@ConditionalOnProperty(name = "kafkademo.batch.enabled", havingValue = "true")
+public class KafkaIdempotentBatchConsumer {
+
+    final AtomicInteger counter = new AtomicInteger();
+    final DemoService demoRetryService;
+    final KafkaDemoProperties properties;
+    final AsyncTaskExecutor batchWorkerExecutor;
+    final DemoMetrics metrics;
+    final OffsetWatermarks offsetWatermarks;
+
+    @KafkaListener(topics = "demo-inbound-topic", groupId = KafkaIdempotentConsumer.GROUP_ID, containerFactory = "batchKafkaListenerContainerFactory")
+    public void listen(final List<ConsumerRecord<String, Object>> records) {
+        log.debug("Received batch of " + records.size() + " messages");
+        final List<PendingRecord> pendingRecords = dropDuplicates(records);
+        final List<PendingSend> pendingSends = Collections.synchronizedList(new ArrayList<>());
+
+        BatchListenerFailedException failure = properties.getBatch().getKeyOrderedWorkers() > 0
+                ? processByKeyInParallel(pendingRecords, pendingSends)
+                : processInOrder(pendingRecords, pendingSends);
+
+        failure = completePendingSends(pendingSends, failure);
+        advanceWatermarks(records, failure != null ? failure.getIndex() : records.size());
+        if (failure != null) {
+            // The batch is redelivered from the failed record onwards.
+            metrics.retries(DemoMetrics.topicPartition(records.get(failure.getIndex())), 1);
+            throw failure;
+        }
+    }
+
+    /**
+     * Return the records still to process, dropping those already processed and repeats within the batch.
+     *
+     * Records at or below their partition's watermark are dropped first, so their event Ids are not looked up.
+     */
+    private List<PendingRecord> dropDuplicates(final List<ConsumerRecord<String, Object>> records) {
+        final List<Integer> candidates = new ArrayList<>();
+        for (int index = 0; index < records.size(); index++) {
+            final ConsumerRecord<String, Object> record = records.get(index);
+            counter.getAndIncrement();
+            log.debug("Received message [" +counter.get()+ "] - eventId: "+eventId(record)+" - key: " + record.key() + " - payload: " + record.value());
+            if (offsetWatermarks.isCompleted(DemoMetrics.topicPartition(record), record.offset())) {
+                log.debug("Duplicate message received at or below the watermark: " + eventId(record));
+                metrics.duplicate(DuplicateSource.WATERMARK, DemoMetrics.topicPartition(record));
+            } else {
+                candidates.add(index);
+            }
+        }
+        final Set<String> eventIds = candidates.stream()
+                .map(index -> eventId(records.get(index)))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        final Set<String> processedEventIds = eventIds.isEmpty()
+                ? Collections.emptySet()
+                : demoRetryService.findProcessedEventIds(eventIds, records.get(0).topic());
+        // Event Ids are added as they are kept, so repeats within the batch are also dropped.
+        final Set<String> keptEventIds = new HashSet<>();
+
+        final List<PendingRecord> pendingRecords = new ArrayList<>();
+        for (final int index : candidates) {
+            final ConsumerRecord<String, Object> record = records.get(index);
+            final String eventId = eventId(record);
+            if (eventId == null) {
+                log.error("Error processing message: no " + KafkaClient.EVENT_ID_HEADER_KEY + " header at offset " + record.offset());
+            } else if (processedEventIds.contains(eventId)) {
+                log.debug("Duplicate message received: " + eventId);
+                metrics.duplicate(DuplicateSource.LOOKUP, DemoMetrics.topicPartition(record));
+            } else if (!keptEventIds.add(eventId)) {
+                log.debug("Duplicate message received: " + eventId);
+                metrics.duplicate(DuplicateSource.IN_BATCH, DemoMetrics.topicPartition(record));
+            } else {
+                pendingRecords.add(new PendingRecord(index, eventId, record));
+            }
+        }
+        return pendingRecords;
+    }
+
+    /**
+     * Process the records in order, stopping at the first retryable failure and returning it.
+     */
+    private BatchListenerFailedException processInOrder(final List<PendingRecord> pendingRecords, final List<PendingSend> pendingSends) {
+        for (final PendingRecord pendingRecord : pendingRecords) {
+            final BatchListenerFailedException failure = process(pendingRecord, pendingSends);
+            if (failure != null) {
+                return failure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Process each partition and key's records in order, with the groups in parallel, returning the earliest failure.
+     */
+    private BatchListenerFailedException processByKeyInParallel(final List<PendingRecord> pendingRecords, final List<PendingSend> pendingSends) {
+        final Map<String, List<PendingRecord>> recordsByKey = new LinkedHashMap<>();
+        pendingRecords.forEach(pendingRecord -> recordsByKey
+                .computeIfAbsent(pendingRecord.record.partition() + ":" + pendingRecord.record.key(), key -> new ArrayList<>())
+                .add(pendingRecord));
+        log.debug("Processing {} records as {} key ordered groups", pendingRecords.size(), recordsByKey.size());
+
+        final List<CompletableFuture<BatchListenerFailedException>> groups = recordsByKey.values().stream()
+                .map(group -> CompletableFuture.supplyAsync(() -> processInOrder(group, pendingSends), batchWorkerExecutor))
+                .collect(Collectors.toList());
+        return groups.stream()
+                .map(CompletableFuture::join)
+                .filter(Objects::nonNull)
+                .min(Comparator.comparingInt(BatchListenerFailedException::getIndex))
+                .orElse(null);
+    }
+
+    private BatchListenerFailedException process(final PendingRecord pendingRecord, final List<PendingSend> pendingSends) {
+        final ConsumerRecord<String, Object> record = pendingRecord.record;
+        final TopicPartition topicPartition = DemoMetrics.topicPartition(record);
+        try {
+            DemoInboundEvent event = InboundEvents.read(record.value());
+            if (properties.getBatch().isAsyncSend()) {
+                pendingSends.add(new PendingSend(pendingRecord.index, pendingRecord.eventId, topicPartition, record.offset(),
+                        demoRetryService.processNewAsync(pendingRecord.eventId, record.key(), event, topicPartition, record.offset())));
+            } else {
+                demoRetryService.processNew(pendingRecord.eventId, record.key(), event, topicPartition, record.offset());
+            }
+        } catch (MappingException e) {
+            metrics.mappingFailure(topicPartition);
+            log.error("Error processing message: " + e.getMessage());
+        } catch (DuplicateEventException e) {
+            log.debug("Duplicate message received: "+ e.getMessage());
+        } catch (Exception e) {
+            if (e instanceof Retryable) {
+                // The records before this one have completed, so their offsets are committed and only this record
+                // onwards is redelivered.
+                log.debug("Throwing retryable exception for batch index " + pendingRecord.index + ".");
+                return new BatchListenerFailedException(e.getMessage(), e, pendingRecord.index);
+            }
+            log.error("Error processing message: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Wait for the acknowledgement of each send in flight, recording each acknowledged event as processed.
+     *
+     * Every acknowledged event is recorded, including those after a failure, so that when the batch is redelivered from
+     * the earliest failure onwards they are dropped as duplicates.  A failed send or a failed write both count as the
+     * record's failure, as neither record is known to be processed.  Returns the failure for the earliest failed record.
+     *
+     * The writes are all issued before any is waited on, so with a non-blocking idempotency store they are in flight
+     * together rather than made one at a time.
+     */
+    private BatchListenerFailedException completePendingSends(final List<PendingSend> pendingSends, BatchListenerFailedException failure) {
+        final Map<PendingSend, CompletableFuture<Void>> writes = new LinkedHashMap<>();
+        for (final PendingSend pendingSend : pendingSends) {
+            try {
+                pendingSend.sendResult.join();
+                writes.put(pendingSend, demoRetryService.recordProcessedAsync(pendingSend.eventId, pendingSend.topicPartition, pendingSend.offset));
+            } catch (CompletionException e) {
+                demoRetryService.abandon(pendingSend.eventId);
+                log.debug("Send failed for batch index " + pendingSend.index + ".");
+                failure = earliest(failure, pendingSend.index, e.getCause());
+            }
+        }
+        for (final Map.Entry<PendingSend, CompletableFuture<Void>> write : writes.entrySet()) {
+            try {
+                write.getValue().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof DuplicateEventException) {
+                    log.debug("Duplicate message received: "+ e.getCause().getMessage());
+                } else {
+                    log.debug("Recording the event as processed failed for batch index " + write.getKey().index + ".");
+                    failure = earliest(failure, write.getKey().index, e.getCause());
+                }
+            }
+        }
+        return failure;
+    }
+
+    private static BatchListenerFailedException earliest(final BatchListenerFailedException failure, final int index, final Throwable cause) {
+        return failure == null || index < failure.getIndex()
+                ? new BatchListenerFailedException(cause.getMessage(), cause, index)
+                : failure;
+    }
+
+    /**
+     * Advance each partition's watermark to its last record before the failed one, as all of those have completed and
+     * none after it are committed.
+     */
+    private void advanceWatermarks(final List<ConsumerRecord<String, Object>> records, final int completedBefore) {
+        if (!offsetWatermarks.isEnabled()) {
+            return;
+        }
+        final Map<TopicPartition, Long> completedOffsets = new LinkedHashMap<>();
+        records.subList(0, completedBefore).forEach(record ->
+                completedOffsets.merge(DemoMetrics.topicPartition(record), record.offset(), Math::max));
+        completedOffsets.forEach(offsetWatermarks::completed);
+    }
+
+    private static String eventId(final ConsumerRecord<String, Object> record) {
+        final Header header = record.headers().lastHeader(KafkaClient.EVENT_ID_HEADER_KEY);
+        return header != null && header.value() != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingRecord {
+        private final int index;
+        private final String eventId;
+        private final ConsumerRecord<String, Object> record;
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingSend {
+        private final int index;
+        private final String eventId;
+        private final TopicPartition topicPartition;
+        private final long offset;
+        private final CompletableFuture<SendResult<String, String>> sendResult;
+    }
+}
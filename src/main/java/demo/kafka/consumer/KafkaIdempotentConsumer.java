@@ -6,31 +6,78 @@ import demo.kafka.event.DemoInboundEvent;
 import demo.kafka.exception.DuplicateEventException;
 import demo.kafka.exception.Retryable;
 import demo.kafka.lib.KafkaClient;
-import demo.kafka.mapper.JsonMapper;
+import demo.kafka.mapper.MappingException;
+import demo.kafka.metrics.DemoMetrics;
 import demo.kafka.service.DemoService;
+import demo.kafka.watermark.OffsetWatermarks;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Slf4j
 @RequiredArgsConstructor
 @Component
+@ConditionalOnProperty(name = "kafkademo.batch.enabled", havingValue = "false", matchIfMissing = true)
 public class KafkaIdempotentConsumer {
 
+    public static final String LISTENER_ID = "kafkaIdempotentConsumer";
+
+    public static final String GROUP_ID = "kafkaConsumerGroup";
+
     final AtomicInteger counter = new AtomicInteger();
     final DemoService demoRetryService;
+    final DemoMetrics metrics;
+    final OffsetWatermarks offsetWatermarks;
 
-    @KafkaListener(topics = "demo-inbound-topic", groupId = "kafkaConsumerGroup", containerFactory = "kafkaListenerContainerFactory")
-    public void listen(@Header(KafkaClient.EVENT_ID_HEADER_KEY) String eventId, @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) String key, @Payload final String payload) {
+    @KafkaListener(id = LISTENER_ID, topics = "demo-inbound-topic", groupId = GROUP_ID, containerFactory = "kafkaListenerContainerFactory")
+    public void listen(@Header(KafkaClient.EVENT_ID_HEADER_KEY) String eventId, @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) String key,
+                       @Header(KafkaHeaders.RECEIVED_TOPIC) String topic, @Header(KafkaHeaders.RECEIVED_PARTITION_ID) Integer partition,
+                       @Header(KafkaHeaders.OFFSET) Long offset, @Payload final Object payload) {
         counter.getAndIncrement();
         log.debug("Received message [" +counter.get()+ "] - eventId: "+eventId+" - key: " + key + " - payload: " + payload);
+        final TopicPartition topicPartition = new TopicPartition(topic, partition);
+        if (offsetWatermarks.isCompleted(topicPartition, offset)) {
+            log.debug("Duplicate message received at or below the watermark: " + eventId);
+            metrics.duplicate(DemoMetrics.DuplicateSource.WATERMARK, topicPartition);
+            return;
+        }
+        process(eventId, key, topicPartition, offset, payload);
+        // Only reached once the record is done with, as a retryable exception is thrown out of here.
+        completed(topicPartition, offset);
+    }
+
+    /**
+     * Advance the watermark past the record, once its transaction has committed if there is one.  Otherwise a record
+     * whose transaction rolled back would be skipped as below the watermark when redelivered.
+     */
+    private void completed(TopicPartition topicPartition, long offset) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    offsetWatermarks.completed(topicPartition, offset);
+                }
+            });
+        } else {
+            offsetWatermarks.completed(topicPartition, offset);
+        }
+    }
+
+    private void process(String eventId, String key, TopicPartition topicPartition, long offset, Object payload) {
         try {
-            DemoInboundEvent event = JsonMapper.readFromJson(payload, DemoInboundEvent.class);
-            demoRetryService.process(eventId, key, event);
+            DemoInboundEvent event = InboundEvents.read(payload);
+            demoRetryService.process(eventId, key, event, topicPartition, offset);
+        } catch (MappingException e) {
+            metrics.mappingFailure(topicPartition);
+            log.error("Error processing message: " + e.getMessage());
         } catch (DuplicateEventException e) {
             // Update consumer offsets to ensure event is not again redelivered.
             log.debug("Duplicate message received: "+ e.getMessage());
@@ -42,4 +89,11 @@ public class KafkaIdempotentConsumer {
             log.error("Error processing message: " + e.getMessage());
         }
     }
+
+    /**
+     * Receives the events that failed on every retry topic, when retry topics are enabled.
+     */
+    public void listenDlt(@Header(KafkaClient.EVENT_ID_HEADER_KEY) String eventId, @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) String key, @Payload final Object payload) {
+        log.warn("**** Retries exhausted - dead lettered eventId: "+eventId+" - key: " + key + " - payload: " + payload);
+    }
 }
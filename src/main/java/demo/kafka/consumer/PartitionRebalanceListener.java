@@ -0,0 +1,69 @@
+package demo.kafka.consumer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import demo.kafka.cache.ProcessedEventCacheWarmer;
+import demo.kafka.filter.ProcessedEventFilter;
+import demo.kafka.watermark.OffsetWatermarks;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the per partition state of the listeners with the partitions, as they are assigned to and revoked from this
+ * instance.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class PartitionRebalanceListener implements ConsumerAwareRebalanceListener {
+
+    private final OffsetWatermarks offsetWatermarks;
+    private final ProcessedEventCacheWarmer processedEventCacheWarmer;
+    private final ProcessedEventFilter processedEventFilter;
+
+    @Override
+    public void onPartitionsAssigned(final Consumer<?, ?> consumer, final Collection<TopicPartition> partitions) {
+        log.debug("Partitions assigned: " + partitions);
+        offsetWatermarks.assigned(partitions);
+        processedEventFilter.assigned(partitions, processedEventFilter.isEnabled() ? endOffsets(consumer, partitions) : Collections.emptyMap());
+        processedEventCacheWarmer.warmUp(partitions);
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(final Consumer<?, ?> consumer, final Collection<TopicPartition> partitions) {
+        log.debug("Partitions revoked: " + partitions);
+        offsetWatermarks.revoked(partitions);
+        processedEventCacheWarmer.evict(partitions);
+        processedEventFilter.revoked(partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(final Consumer<?, ?> consumer, final Collection<TopicPartition> partitions) {
+        // Lost rather than revoked, so the progress may already belong to another instance, but the conditional write
+        // never moves it backwards.
+        log.debug("Partitions lost: " + partitions);
+        offsetWatermarks.revoked(partitions);
+        processedEventCacheWarmer.evict(partitions);
+        processedEventFilter.revoked(partitions);
+    }
+
+    /**
+     * The end offsets of the partitions, below which the previous owner may have consumed the records.  Empty if they
+     * cannot be fetched, so that no record of the partitions is answered from the processed event filter.
+     */
+    private Map<TopicPartition, Long> endOffsets(final Consumer<?, ?> consumer, final Collection<TopicPartition> partitions) {
+        try {
+            return consumer.endOffsets(partitions);
+        } catch (KafkaException e) {
+            log.warn("End offsets of partitions " + partitions + " not fetched, so their event Ids will be looked up: " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package demo.kafka.domain;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+
+/**
+ * The highest offset of a consumer group's partition up to which every record has been completed.
+ */
+@DynamoDBTable(tableName=PartitionWatermark.TABLE_NAME)
+public class PartitionWatermark {
+
+    public static final String TABLE_NAME = "PartitionWatermark";
+
+    public static final String ID = "Id";
+    public static final String COMPLETED_OFFSET = "CompletedOffset";
+
+    // The consumer group, topic and partition, as group:topic:partition.
+    @DynamoDBHashKey(attributeName=ID)
+    private String id;
+
+    @DynamoDBAttribute(attributeName=COMPLETED_OFFSET)
+    private Long completedOffset;
+
+    public PartitionWatermark(){}
+
+    public PartitionWatermark(final String id, final Long completedOffset) {
+        this.id = id;
+        this.completedOffset = completedOffset;
+    }
+
+    public static String id(final String groupId, final String topic, final int partition) {
+        return groupId + ":" + topic + ":" + partition;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Long getCompletedOffset() {
+        return completedOffset;
+    }
+
+    public void setCompletedOffset(Long completedOffset) {
+        this.completedOffset = completedOffset;
+    }
+}
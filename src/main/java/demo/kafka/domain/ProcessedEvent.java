@@ -1,14 +1,58 @@
 package demo.kafka.domain;
 
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConvertedEnum;
 
-@DynamoDBTable(tableName="ProcessedEvent")
+@DynamoDBTable(tableName=ProcessedEvent.TABLE_NAME)
 public class ProcessedEvent {
 
-    @DynamoDBHashKey(attributeName="Id")
+    public static final String TABLE_NAME = "ProcessedEvent";
+
+    public static final String ID = "Id";
+    public static final String STATUS = "Status";
+    public static final String OWNER_ID = "OwnerId";
+    public static final String LEASE_EXPIRY = "LeaseExpiry";
+    public static final String EXPIRES_AT = "ExpiresAt";
+    public static final String TOPIC_PARTITION = "TopicPartition";
+    public static final String RECORD_OFFSET = "RecordOffset";
+
+    // Sparse global secondary index of the records by the partition and offset they were consumed from, for warming up
+    // the cache of a newly assigned partition.  Not generated from the annotations, as it is optional: see
+    // DynamoDbIdempotencyStore.withTopicPartitionIndex.
+    public static final String TOPIC_PARTITION_INDEX = "TopicPartitionIndex";
+
+    @DynamoDBHashKey(attributeName=ID)
     private String id;
 
+    // Only written by the claim protocol.  A record without a status was written on completion, so is completed.
+    @DynamoDBTypeConvertedEnum
+    @DynamoDBAttribute(attributeName=STATUS)
+    private ProcessedEventStatus status;
+
+    // The instance that holds the claim on the event.
+    @DynamoDBAttribute(attributeName=OWNER_ID)
+    private String ownerId;
+
+    // Epoch millis at which the claim lapses and another instance may take it over.
+    @DynamoDBAttribute(attributeName=LEASE_EXPIRY)
+    private Long leaseExpiry;
+
+    // Epoch seconds after which the record is expired, and deleted by the table's TTL.  Records written before retention
+    // was introduced have none, and never expire.
+    @DynamoDBAttribute(attributeName=EXPIRES_AT)
+    private Long expiresAt;
+
+    // The topic and partition the event was consumed from, as topic-partition.  Records written before this was added
+    // have none, so are not in the index.
+    @DynamoDBAttribute(attributeName=TOPIC_PARTITION)
+    private String topicPartition;
+
+    @DynamoDBAttribute(attributeName=RECORD_OFFSET)
+    private Long recordOffset;
+
     public ProcessedEvent(){}
 
     public ProcessedEvent(final String id) {
@@ -22,4 +66,65 @@ public class ProcessedEvent {
     public void setId(String id) {
         this.id = id;
     }
+
+    public ProcessedEventStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ProcessedEventStatus status) {
+        this.status = status;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    public Long getLeaseExpiry() {
+        return leaseExpiry;
+    }
+
+    public void setLeaseExpiry(Long leaseExpiry) {
+        this.leaseExpiry = leaseExpiry;
+    }
+
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public String getTopicPartition() {
+        return topicPartition;
+    }
+
+    public void setTopicPartition(String topicPartition) {
+        this.topicPartition = topicPartition;
+    }
+
+    public Long getRecordOffset() {
+        return recordOffset;
+    }
+
+    public void setRecordOffset(Long recordOffset) {
+        this.recordOffset = recordOffset;
+    }
+
+    /**
+     * TTL deletes expired records only some time after they expire, so an expired record must be treated as absent.
+     */
+    @DynamoDBIgnore
+    public boolean isExpired(final long nowEpochSeconds) {
+        return expiresAt != null && expiresAt <= nowEpochSeconds;
+    }
+
+    @DynamoDBIgnore
+    public boolean isCompleted() {
+        return status != ProcessedEventStatus.IN_PROGRESS;
+    }
 }
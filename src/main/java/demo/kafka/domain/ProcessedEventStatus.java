@@ -0,0 +1,7 @@
+package demo.kafka.domain;
+
+public enum ProcessedEventStatus {
+    // Claimed for processing by the owning instance, until its lease expires.
+    IN_PROGRESS,
+    COMPLETED
+}
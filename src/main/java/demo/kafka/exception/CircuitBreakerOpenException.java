@@ -0,0 +1,11 @@
+package demo.kafka.exception;
+
+/**
+ * Thrown instead of calling the third party service while its circuit breaker is not letting calls through.  The event
+ * should be redelivered once the breaker lets calls through again.
+ */
+public class CircuitBreakerOpenException extends RuntimeException implements Retryable {
+    public CircuitBreakerOpenException(final String name) {
+        super("Circuit breaker open for: " + name);
+    }
+}
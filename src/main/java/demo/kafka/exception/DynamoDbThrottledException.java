@@ -0,0 +1,15 @@
+package demo.kafka.exception;
+
+/**
+ * Thrown when a call to the idempotency store is throttled, either by DynamoDB for exceeding the table's throughput or
+ * by the client side rate limiter holding calls back.  The event should be retried once capacity is available.
+ */
+public class DynamoDbThrottledException extends RuntimeException implements Retryable {
+    public DynamoDbThrottledException(final String message) {
+        super(message);
+    }
+
+    public DynamoDbThrottledException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,21 @@
+package demo.kafka.exception;
+
+import java.time.Instant;
+
+/**
+ * Thrown when another instance holds an unexpired claim on the event.  The event should be retried once the lease has
+ * expired, by when the owner will have either completed it or lapsed.
+ */
+public class EventLeaseHeldException extends RuntimeException implements Retryable {
+
+    private final Instant leaseExpiry;
+
+    public EventLeaseHeldException(final String eventId, final String ownerId, final Instant leaseExpiry) {
+        super("Event Id: "+ eventId + " claimed by: " + ownerId + " until: " + leaseExpiry);
+        this.leaseExpiry = leaseExpiry;
+    }
+
+    public Instant getLeaseExpiry() {
+        return leaseExpiry;
+    }
+}
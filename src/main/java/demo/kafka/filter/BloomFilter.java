@@ -0,0 +1,105 @@
+package demo.kafka.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size Bloom filter of strings, safe for concurrent use without locking.
+ *
+ * Sized from the expected insertions and the target false positive rate.  The bits are set with compare and swap, and
+ * each string's bit positions are derived from a single 64 bit hash by double hashing.
+ */
+class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    private final AtomicLong bitsSet = new AtomicLong();
+    private final AtomicLong insertions = new AtomicLong();
+
+    BloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+        if (expectedInsertions < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("expectedInsertions must be at least 1 and falsePositiveRate between 0 and 1");
+        }
+        final long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        final int wordCount = (int) Math.max(1, (bits + Long.SIZE - 1) / Long.SIZE);
+        this.words = new AtomicLongArray(wordCount);
+        this.bitCount = (long) wordCount * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * Return false if the string has definitely not been put, true if it may have been.
+     */
+    boolean mightContain(final String value) {
+        final long hash = hash(value);
+        final long h1 = hash;
+        final long h2 = mix(hash) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void put(final String value) {
+        final long hash = hash(value);
+        final long h1 = hash;
+        final long h2 = mix(hash) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            final int index = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(index, word, word | mask));
+            if ((word & mask) == 0) {
+                bitsSet.incrementAndGet();
+            }
+        }
+        insertions.incrementAndGet();
+    }
+
+    /**
+     * The false positive rate expected at the current fill, which exceeds the target once more than the expected number
+     * of strings have been put.
+     */
+    double expectedFalsePositiveRate() {
+        return Math.pow((double) bitsSet.get() / bitCount, hashCount);
+    }
+
+    long getInsertions() {
+        return insertions.get();
+    }
+
+    long sizeInBytes() {
+        return bitCount / Byte.SIZE;
+    }
+
+    private static long hash(final String value) {
+        // FNV-1a over the chars, then mixed so that the low bits depend on every char.
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        // The MurmurHash3 64 bit finalizer.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
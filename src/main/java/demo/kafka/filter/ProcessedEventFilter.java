@@ -0,0 +1,168 @@
+package demo.kafka.filter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import demo.kafka.metrics.DemoMetrics;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.IdempotencyStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bloom filters of the event Ids processed from each partition assigned to this instance, so that the lookup of an event
+ * Id that has definitely not been processed can be skipped.
+ *
+ * A partition's filter is created when the partition is assigned, and rebuilt on the warm-up pool from its most recently
+ * processed event Ids in the ProcessedEvent table.  Until the rebuild completes every check is answered as unavailable,
+ * so is looked up as before.  Event Ids recorded as processed in the meantime are added as usual.
+ *
+ * The TopicPartitionIndex only supports eventually consistent reads, so the rebuild may miss the records the previous
+ * owner completed just before the partition was handed over, which are the very records redelivered to this instance.
+ * So a record below the partition's end offset at assignment, which the previous owner may have consumed, is always
+ * answered as unavailable and looked up.  Only the records appended since are answered from the filter.
+ *
+ * The filter only covers the event Ids it was rebuilt with and those processed since.  An event processed further back
+ * than that, or just before the handover and sent again as a new record, is reported as absent, so is processed again
+ * and only caught by the conditional write recording it.
+ */
+@Slf4j
+@Component
+public class ProcessedEventFilter {
+
+    public enum Result {
+        // Definitely not processed within the filter's coverage.
+        ABSENT,
+        // Possibly processed, so must be looked up.
+        MAYBE,
+        // Disabled, the partition's filter is not yet rebuilt, or the record may be a redelivery it does not cover.
+        UNAVAILABLE
+    }
+
+    private final IdempotencyStore idempotencyStore;
+    private final KafkaDemoProperties.ProcessedEventFilter config;
+    private final AsyncTaskExecutor cacheWarmUpExecutor;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<TopicPartition, RotatingBloomFilter> filters = new ConcurrentHashMap<>();
+    private final Set<TopicPartition> rebuilt = ConcurrentHashMap.newKeySet();
+    // The end offset of each partition when assigned, below which records are not answered from the filter.
+    private final Map<TopicPartition, Long> coveredFrom = new ConcurrentHashMap<>();
+
+    public ProcessedEventFilter(final IdempotencyStore idempotencyStore, final KafkaDemoProperties properties,
+                                final AsyncTaskExecutor cacheWarmUpExecutor, final MeterRegistry meterRegistry) {
+        this.idempotencyStore = idempotencyStore;
+        this.config = properties.getProcessedEventFilter();
+        this.cacheWarmUpExecutor = cacheWarmUpExecutor;
+        this.meterRegistry = meterRegistry;
+        if (config.isEnabled()) {
+            Gauge.builder("kafkademo.processed.event.filter.memory", filters,
+                    partitionFilters -> partitionFilters.values().stream().mapToLong(RotatingBloomFilter::sizeInBytes).sum())
+                    .description("Memory held by the processed event filters of the assigned partitions")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+            Gauge.builder("kafkademo.processed.event.filter.expected.fpp", filters,
+                    partitionFilters -> partitionFilters.values().stream().mapToDouble(RotatingBloomFilter::expectedFalsePositiveRate).max().orElse(0))
+                    .description("The highest false positive rate expected of a partition's filter at its current fill")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    public Result check(final String eventId, final TopicPartition topicPartition, final long offset) {
+        if (!config.isEnabled()) {
+            return Result.UNAVAILABLE;
+        }
+        final RotatingBloomFilter filter = filters.get(topicPartition);
+        final Result result = filter == null || !rebuilt.contains(topicPartition) || offset < coveredFrom.getOrDefault(topicPartition, Long.MAX_VALUE)
+                ? Result.UNAVAILABLE
+                : filter.mightContain(eventId) ? Result.MAYBE : Result.ABSENT;
+        counter("kafkademo.processed.event.filter.checks", topicPartition, result).increment();
+        return result;
+    }
+
+    /**
+     * Count a MAYBE result whose lookup found the event not processed.
+     */
+    public void falsePositive(final TopicPartition topicPartition) {
+        counter("kafkademo.processed.event.filter.false.positives", topicPartition, null).increment();
+    }
+
+    public void markProcessed(final String eventId, final TopicPartition topicPartition) {
+        if (config.isEnabled() && topicPartition != null) {
+            final RotatingBloomFilter filter = filters.get(topicPartition);
+            if (filter != null) {
+                filter.put(eventId);
+            }
+        }
+    }
+
+    /**
+     * Create the filters of the newly assigned partitions, and start their rebuilds without waiting for them.
+     *
+     * A partition with no end offset is never answered from its filter, as any of its records may be a redelivery.
+     */
+    public void assigned(final Collection<TopicPartition> topicPartitions, final Map<TopicPartition, Long> endOffsets) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        topicPartitions.forEach(topicPartition -> {
+            final RotatingBloomFilter filter = new RotatingBloomFilter(config.getExpectedInsertions(), config.getFalsePositiveRate());
+            filters.put(topicPartition, filter);
+            rebuilt.remove(topicPartition);
+            final Long endOffset = endOffsets.get(topicPartition);
+            if (endOffset != null) {
+                coveredFrom.put(topicPartition, endOffset);
+            } else {
+                coveredFrom.remove(topicPartition);
+            }
+            CompletableFuture.runAsync(() -> rebuild(topicPartition, filter), cacheWarmUpExecutor)
+                    .exceptionally(e -> {
+                        log.warn("Processed event filter rebuild failed for partition " + topicPartition + ", so its event Ids will be looked up: "
+                                + e.getMessage());
+                        return null;
+                    });
+        });
+    }
+
+    public void revoked(final Collection<TopicPartition> topicPartitions) {
+        if (config.isEnabled()) {
+            topicPartitions.forEach(topicPartition -> {
+                filters.remove(topicPartition);
+                rebuilt.remove(topicPartition);
+                coveredFrom.remove(topicPartition);
+            });
+        }
+    }
+
+    private void rebuild(final TopicPartition topicPartition, final RotatingBloomFilter filter) {
+        final long start = System.currentTimeMillis();
+        final Collection<String> eventIds = idempotencyStore.findRecentlyProcessed(topicPartition, config.getRebuildMaxEventsPerPartition());
+        eventIds.forEach(filter::put);
+        // Only if the partition has not since been revoked, or revoked and assigned again with a new filter.
+        if (filters.get(topicPartition) == filter) {
+            rebuilt.add(topicPartition);
+        }
+        log.info("Processed event filter rebuilt with {} event Ids for partition {} in {}ms", eventIds.size(), topicPartition,
+                System.currentTimeMillis() - start);
+    }
+
+    private Counter counter(final String name, final TopicPartition topicPartition, final Result result) {
+        final Counter.Builder builder = Counter.builder(name).tags(DemoMetrics.tags(topicPartition));
+        if (result != null) {
+            builder.tag("result", result.name().toLowerCase());
+        }
+        return builder.register(meterRegistry);
+    }
+}
@@ -0,0 +1,55 @@
+package demo.kafka.filter;
+
+/**
+ * A Bloom filter bounded in size by holding two generations.
+ *
+ * Strings are put in the current generation, and looked up in both.  Once the current generation holds its expected
+ * insertions it becomes the previous one, and the old previous generation is dropped along with everything only it
+ * held.  So the filter always holds at least the most recent expected insertions, its memory never exceeds two
+ * generations, and its false positive rate stays within about twice the target.
+ */
+class RotatingBloomFilter {
+
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+
+    RotatingBloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.current = new BloomFilter(expectedInsertions, falsePositiveRate);
+    }
+
+    boolean mightContain(final String value) {
+        final BloomFilter previous = this.previous;
+        return current.mightContain(value) || (previous != null && previous.mightContain(value));
+    }
+
+    void put(final String value) {
+        current.put(value);
+        if (current.getInsertions() >= expectedInsertions) {
+            rotate();
+        }
+    }
+
+    double expectedFalsePositiveRate() {
+        final BloomFilter previous = this.previous;
+        final double previousRate = previous != null ? previous.expectedFalsePositiveRate() : 0;
+        return 1 - (1 - current.expectedFalsePositiveRate()) * (1 - previousRate);
+    }
+
+    long sizeInBytes() {
+        final BloomFilter previous = this.previous;
+        return current.sizeInBytes() + (previous != null ? previous.sizeInBytes() : 0);
+    }
+
+    private synchronized void rotate() {
+        // Checked again, as another thread may have rotated first.
+        if (current.getInsertions() >= expectedInsertions) {
+            previous = current;
+            current = new BloomFilter(expectedInsertions, falsePositiveRate);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package demo.kafka.hedge;
+
+import java.util.Arrays;
+
+import demo.kafka.properties.KafkaDemoProperties;
+
+/**
+ * Decides how long a lookup waits before it is hedged, and whether the hedge budget allows it.
+ *
+ * The delay is the configured percentile of the latencies of the last reads, recomputed every tenth of the window, and
+ * never below the minimum delay.  Until enough reads have been timed the initial delay is used.
+ *
+ * Each lookup earns the maximum hedge ratio of a hedge, up to the maximum burst, and each hedge spends one, so hedges
+ * stay within that fraction of the lookups however slow the reads become.
+ */
+class HedgePolicy {
+
+    private final KafkaDemoProperties.HedgedLookup config;
+
+    // The latencies of the last reads, written in turn from next.
+    private final long[] latencies;
+
+    private final int recomputeEvery;
+
+    private int samples;
+
+    private int next;
+
+    private int sinceRecompute;
+
+    private volatile long delayNanos;
+
+    private double budget;
+
+    HedgePolicy(final KafkaDemoProperties.HedgedLookup config) {
+        this.config = config;
+        this.latencies = new long[Math.max(1, config.getLatencyWindow())];
+        this.recomputeEvery = Math.max(1, latencies.length / 10);
+        this.delayNanos = config.getInitialDelay().toNanos();
+    }
+
+    long getDelayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Record the latency of a read that was not a hedge, so the delay follows the latency of the store rather than of
+     * the reads that were slow enough to hedge.
+     */
+    synchronized void record(final long latencyNanos) {
+        latencies[next] = latencyNanos;
+        next = (next + 1) % latencies.length;
+        samples = Math.min(samples + 1, latencies.length);
+        if (++sinceRecompute >= recomputeEvery && samples >= config.getMinSamples()) {
+            sinceRecompute = 0;
+            final long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            final int index = (int) Math.min(samples - 1, Math.ceil(config.getDelayPercentile() * samples) - 1);
+            delayNanos = Math.max(config.getMinDelay().toNanos(), sorted[Math.max(0, index)]);
+        }
+    }
+
+    synchronized void onLookup() {
+        budget = Math.min(config.getMaxBurst(), budget + config.getMaxHedgeRatio());
+    }
+
+    /**
+     * Spend a hedge from the budget, returning false if none is left.
+     */
+    synchronized boolean tryHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+}
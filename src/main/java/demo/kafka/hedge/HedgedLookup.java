@@ -0,0 +1,168 @@
+package demo.kafka.hedge;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.DynamoDbRateLimiter;
+import demo.kafka.store.IdempotencyStore;
+import demo.kafka.store.IdempotencyStoreType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * The duplicate check read, hedged with a second identical read if the first has not answered within the HedgePolicy's
+ * delay.  Whichever read succeeds first is taken, and the other is left to complete unused.  The lookup only fails if
+ * both reads fail.
+ *
+ * Reads of a blocking store are made on the hedged lookup pool, which queues nothing.  A read the pool has no thread
+ * for is made on the calling thread if it is the first, and is not made at all if it is the hedge.  The DYNAMODB_ASYNC
+ * store's reads are made on its own client instead.
+ *
+ * With either DynamoDB store, no hedge is made while its rate limiter holds reads below their maximum rate, as after recent
+ * throttling, since a hedge then only adds to the load on a table that is already short of read capacity.
+ */
+@Slf4j
+@Component
+public class HedgedLookup {
+
+    private final IdempotencyStore idempotencyStore;
+    private final KafkaDemoProperties.HedgedLookup config;
+    private final boolean nonBlocking;
+    private final DynamoDbRateLimiter rateLimiter;
+    private final AsyncTaskExecutor hedgedLookupExecutor;
+    private final HedgePolicy policy;
+    private final Counter hedgesFired;
+    private final Counter hedgesWon;
+    private final Counter hedgesSkipped;
+
+    public HedgedLookup(final IdempotencyStore idempotencyStore, final KafkaDemoProperties properties, final DynamoDbRateLimiter rateLimiter,
+                        final AsyncTaskExecutor hedgedLookupExecutor, final MeterRegistry meterRegistry) {
+        this.idempotencyStore = idempotencyStore;
+        this.config = properties.getHedgedLookup();
+        this.nonBlocking = properties.getIdempotencyStore() == IdempotencyStoreType.DYNAMODB_ASYNC;
+        // Only the DynamoDB stores' calls go through the rate limiter.
+        this.rateLimiter = properties.getIdempotencyStore() != IdempotencyStoreType.IN_MEMORY ? rateLimiter : null;
+        this.hedgedLookupExecutor = hedgedLookupExecutor;
+        this.policy = new HedgePolicy(config);
+        this.hedgesFired = Counter.builder("kafkademo.dedup.lookup.hedges.fired")
+                .description("Duplicate check reads hedged with a second read")
+                .register(meterRegistry);
+        this.hedgesWon = Counter.builder("kafkademo.dedup.lookup.hedges.won")
+                .description("Hedged duplicate check reads answered by the second read first")
+                .register(meterRegistry);
+        this.hedgesSkipped = Counter.builder("kafkademo.dedup.lookup.hedges.skipped")
+                .description("Duplicate check reads due a hedge but refused it by the hedge budget, the rate limiter or a full pool")
+                .register(meterRegistry);
+        if (config.isEnabled()) {
+            TimeGauge.builder("kafkademo.dedup.lookup.hedge.delay", policy, TimeUnit.NANOSECONDS, HedgePolicy::getDelayNanos)
+                    .description("How long a duplicate check read waits before it is hedged")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Return true if the event has been recorded as processed, as IdempotencyStore.isProcessed.
+     */
+    public boolean isProcessed(final String eventId) {
+        if (!config.isEnabled()) {
+            return idempotencyStore.isProcessed(eventId);
+        }
+        policy.onLookup();
+        final long start = System.nanoTime();
+        final CompletableFuture<Boolean> first = read(eventId, true);
+        first.whenComplete((processed, e) -> {
+            if (e == null) {
+                policy.record(System.nanoTime() - start);
+            }
+        });
+        try {
+            return first.get(policy.getDelayNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Slow, so hedge it.
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KafkaDemoRetryableException(e);
+        }
+
+        final CompletableFuture<Boolean> hedge = !isRateLimited() && policy.tryHedge() ? read(eventId, false) : null;
+        if (hedge == null) {
+            hedgesSkipped.increment();
+            return await(first);
+        }
+        hedgesFired.increment();
+        log.debug("Hedged the lookup of event Id {} after {}ms", eventId, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return await(firstSuccessful(first, hedge));
+    }
+
+    private boolean isRateLimited() {
+        return rateLimiter != null && rateLimiter.isHoldingBack(DynamoDbRateLimiter.Capacity.READ);
+    }
+
+    /**
+     * Start a read, returning null if it is a hedge the pool has no thread for.
+     */
+    private CompletableFuture<Boolean> read(final String eventId, final boolean first) {
+        if (nonBlocking) {
+            return idempotencyStore.isProcessedAsync(eventId);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> idempotencyStore.isProcessed(eventId), hedgedLookupExecutor);
+        } catch (RejectedExecutionException e) {
+            return first ? idempotencyStore.isProcessedAsync(eventId) : null;
+        }
+    }
+
+    private CompletableFuture<Boolean> firstSuccessful(final CompletableFuture<Boolean> first, final CompletableFuture<Boolean> hedge) {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger();
+        first.whenComplete((processed, e) -> {
+            if (e == null) {
+                result.complete(processed);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(e);
+            }
+        });
+        hedge.whenComplete((processed, e) -> {
+            if (e == null) {
+                if (result.complete(processed)) {
+                    hedgesWon.increment();
+                }
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static boolean await(final CompletableFuture<Boolean> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(final Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            return unwrap(cause.getCause());
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new KafkaDemoRetryableException(cause);
+    }
+}
@@ -1,6 +1,7 @@
 package demo.kafka.lib;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import demo.kafka.exception.KafkaDemoException;
 import demo.kafka.properties.KafkaDemoProperties;
@@ -19,17 +20,15 @@ public class KafkaClient {
     private KafkaDemoProperties properties;
 
     @Autowired
-    private KafkaTemplate kafkaTemplate;
+    private KafkaTemplate<String, String> kafkaTemplate;
 
     public static final String EVENT_ID_HEADER_KEY = "demo_eventIdHeader";
 
-    public SendResult sendMessage(String key, String data) {
+    public SendResult<String, String> sendMessage(String key, String data) {
         try {
-            String payload = "eventId: " + UUID.randomUUID() + ", instanceId: "+properties.getInstanceId()+", payload: " + data;
-            final ProducerRecord<String, String> record =
-                    new ProducerRecord<>(properties.getOutboundTopic(), key, payload);
+            final ProducerRecord<String, String> record = buildRecord(key, data);
 
-            final SendResult result = (SendResult) kafkaTemplate.send(record).get();
+            final SendResult<String, String> result = kafkaTemplate.send(record).get();
             final RecordMetadata metadata = result.getRecordMetadata();
 
             log.debug(String.format("Sent record(key=%s value=%s) meta(topic=%s, partition=%d, offset=%d)",
@@ -41,4 +40,33 @@ public class KafkaClient {
             throw new KafkaDemoException(e);
         }
     }
+
+    /**
+     * Send the message without waiting for the broker acknowledgement.  The returned future completes once the send is
+     * acknowledged, or completes exceptionally with a KafkaDemoException if it fails.
+     */
+    public CompletableFuture<SendResult<String, String>> sendMessageAsync(String key, String data) {
+        final ProducerRecord<String, String> record = buildRecord(key, data);
+        final CompletableFuture<SendResult<String, String>> result = new CompletableFuture<>();
+        kafkaTemplate.send(record).addCallback(
+                sent -> {
+                    final RecordMetadata metadata = sent.getRecordMetadata();
+                    log.debug(String.format("Sent record(key=%s value=%s) meta(topic=%s, partition=%d, offset=%d)",
+                            record.key(), record.value(), metadata.topic(), metadata.partition(), metadata.offset()));
+                    result.complete(sent);
+                },
+                failure -> {
+                    log.error("Error sending message to topic " + properties.getOutboundTopic(), failure);
+                    result.completeExceptionally(new KafkaDemoException(failure));
+                });
+        return result;
+    }
+
+    public String buildPayload(String data) {
+        return "eventId: " + UUID.randomUUID() + ", instanceId: "+properties.getInstanceId()+", payload: " + data;
+    }
+
+    private ProducerRecord<String, String> buildRecord(String key, String data) {
+        return new ProducerRecord<>(properties.getOutboundTopic(), key, buildPayload(data));
+    }
 }
@@ -0,0 +1,33 @@
+package demo.kafka.mapper;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import demo.kafka.event.DemoInboundEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Deserializes the record value straight from its bytes into a DemoInboundEvent, without first decoding it to a String.
+ *
+ * A value that cannot be parsed fails with a SerializationException.  The consumer factory wraps this deserializer in an
+ * ErrorHandlingDeserializer, so such a poison pill reaches the container's error handler as a DeserializationException
+ * rather than failing the poll.
+ */
+public class DemoInboundEventDeserializer implements Deserializer<DemoInboundEvent> {
+
+    // Built once, as an ObjectReader is immutable and thread safe.
+    private static final ObjectReader reader = JsonMapper.readerFor(DemoInboundEvent.class);
+
+    @Override
+    public DemoInboundEvent deserialize(final String topic, final byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            return reader.readValue(data);
+        } catch (IOException e) {
+            throw new SerializationException("Unable to deserialize DemoInboundEvent from topic " + topic, e);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package demo.kafka.mapper;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 public class JsonMapper {
@@ -27,6 +28,13 @@ public class JsonMapper {
 		}
 	}
 
+	/**
+	 * Return a reader for the required class type, sharing the mapper's configuration.
+	 */
+	public static ObjectReader readerFor(Class<?> clazz) {
+		return objectMapper.readerFor(clazz);
+	}
+
 	/**
 	 * Map the given Object to a JSON String.
 	 */
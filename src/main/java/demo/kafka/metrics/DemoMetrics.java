@@ -0,0 +1,116 @@
+package demo.kafka.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.stereotype.Component;
+
+/**
+ * The timers and counters for the processing of consumed events, each tagged by the topic and partition consumed from.
+ *
+ * The stage timers are on the path of every event, so each is held once registered rather than looked up again.
+ */
+@Component
+@RequiredArgsConstructor
+public class DemoMetrics {
+
+    // The partition tag for a stage run once for a whole batch, across its partitions.
+    public static final String ALL_PARTITIONS = "all";
+
+    public enum Stage {
+        DEDUP_LOOKUP,
+        DEDUP_BATCH_LOOKUP,
+        THIRDPARTY_CALL,
+        OUTBOUND_PRODUCE,
+        DEDUP_WRITE;
+
+        String tagValue() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    public enum DuplicateSource {
+        // Found already processed by a read of the cache or idempotency store.
+        LOOKUP,
+        // Found already processed by a conditional write to the idempotency store failing.
+        CONDITIONAL_WRITE,
+        // Repeated within the same batch.
+        IN_BATCH,
+        // At or below the partition's completed offset watermark.
+        WATERMARK;
+
+        String tagValue() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<Stage, ConcurrentMap<TopicPartition, Timer>> stageTimers = new ConcurrentHashMap<>();
+
+    public Timer stageTimer(final Stage stage, final TopicPartition topicPartition) {
+        return stageTimers.computeIfAbsent(stage, s -> new ConcurrentHashMap<>())
+                .computeIfAbsent(topicPartition, tp -> stageTimer(stage, tags(tp)));
+    }
+
+    public Timer batchStageTimer(final Stage stage, final String topic) {
+        return stageTimer(stage, Tags.of("topic", topic, "partition", ALL_PARTITIONS));
+    }
+
+    public void duplicate(final DuplicateSource source, final TopicPartition topicPartition) {
+        Counter.builder("kafkademo.duplicates")
+                .description("Events found to have been processed already")
+                .tags(tags(topicPartition))
+                .tag("source", source.tagValue())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void retries(final TopicPartition topicPartition, final int retries) {
+        Counter.builder("kafkademo.retries")
+                .description("Retries of events that failed with a retryable exception")
+                .tags(tags(topicPartition))
+                .register(meterRegistry)
+                .increment(retries);
+    }
+
+    public void recovery(final TopicPartition topicPartition) {
+        Counter.builder("kafkademo.recoveries")
+                .description("Events given up on once their retries were exhausted")
+                .tags(tags(topicPartition))
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void mappingFailure(final TopicPartition topicPartition) {
+        Counter.builder("kafkademo.mapping.failures")
+                .description("Events whose payload could not be mapped")
+                .tags(tags(topicPartition))
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public static TopicPartition topicPartition(final ConsumerRecord<?, ?> record) {
+        return new TopicPartition(record.topic(), record.partition());
+    }
+
+    private Timer stageTimer(final Stage stage, final Tags tags) {
+        return Timer.builder("kafkademo.process.stage")
+                .description("Time taken by each stage of processing an event")
+                .tags(tags)
+                .tag("stage", stage.tagValue())
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public static Tags tags(final TopicPartition topicPartition) {
+        return Tags.of("topic", topicPartition.topic(), "partition", String.valueOf(topicPartition.partition()));
+    }
+}
@@ -1,8 +1,12 @@
 package demo.kafka.properties;
 
 import java.net.URL;
+import java.time.Duration;
 import java.util.UUID;
 
+import demo.kafka.cache.BoundedCache;
+import demo.kafka.store.DynamoDbLookup;
+import demo.kafka.store.IdempotencyStoreType;
 import lombok.Getter;
 import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
@@ -22,4 +26,255 @@ public class KafkaDemoProperties {
 
     // A unique Id for this instance of the service.
     @NotNull private UUID instanceId = UUID.randomUUID();
+
+    @NotNull private Thirdparty thirdparty = new Thirdparty();
+
+    // The backing store for processed event Ids.
+    @NotNull private IdempotencyStoreType idempotencyStore = IdempotencyStoreType.DYNAMODB;
+
+    @NotNull private DynamoDb dynamodb = new DynamoDb();
+
+    @NotNull private Batch batch = new Batch();
+
+    @NotNull private ProcessedEventCache processedEventCache = new ProcessedEventCache();
+
+    @NotNull private ProcessedEventFilter processedEventFilter = new ProcessedEventFilter();
+
+    @NotNull private HedgedLookup hedgedLookup = new HedgedLookup();
+
+    @NotNull private Claim claim = new Claim();
+
+    @NotNull private RetryTopics retryTopics = new RetryTopics();
+
+    @NotNull private Watermark watermark = new Watermark();
+
+    @NotNull private Concurrency concurrency = new Concurrency();
+
+    @NotNull private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    @NotNull private Transactions transactions = new Transactions();
+
+    @Getter
+    @Setter
+    public static class Thirdparty {
+        private int maxConnections = 50;
+        private int maxConnectionsPerRoute = 20;
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        private Duration readTimeout = Duration.ofSeconds(20);
+        // How long a call waits to lease a connection from the pool when all are in use.
+        private Duration connectionRequestTimeout = Duration.ofSeconds(2);
+        private Duration keepAlive = Duration.ofSeconds(30);
+        private Duration validateAfterInactivity = Duration.ofSeconds(2);
+        // Share one call between the concurrent lookups of the same key.
+        private boolean singleFlight = false;
+        // Keep the successful responses by key, for a service whose response for a key does not change within the ttl.
+        private boolean responseCacheEnabled = false;
+        private int responseCacheMaxEntries = 10000;
+        private Duration responseCacheTtl = Duration.ofSeconds(30);
+        private BoundedCache.EvictionPolicy responseCacheEvictionPolicy = BoundedCache.EvictionPolicy.LRU;
+    }
+
+    @Getter
+    @Setter
+    public static class DynamoDb {
+        private DynamoDbLookup lookup = DynamoDbLookup.GET_ITEM;
+        // Strongly consistent lookups see a just-completed event from another instance, at twice the read capacity.
+        private boolean consistentReads = false;
+        // How long a processed event is kept.  At least the inbound topic's retention.ms, as an event can be redelivered
+        // for as long as it is on the topic.  Checked against the topic at startup, failing if shorter, or only warning
+        // if failOnShortRetention is false.
+        private Duration retention = Duration.ofDays(7);
+        private boolean failOnShortRetention = true;
+        // Enable TTL on the ExpiresAt attribute at startup, if not already enabled.
+        private boolean manageTimeToLive = true;
+        // The DYNAMODB_ASYNC store's limit on requests in flight, and how long a request waits for one to complete when at
+        // the limit before failing as retryable.
+        private int asyncMaxInFlight = 256;
+        private Duration asyncInFlightAcquireTimeout = Duration.ofSeconds(5);
+        // The DYNAMODB_ASYNC store's HTTP connection pool.
+        private int asyncMaxConnections = 50;
+        private int asyncMaxPendingConnectionAcquires = 10000;
+        private Duration asyncConnectTimeout = Duration.ofSeconds(2);
+        private Duration asyncConnectionAcquisitionTimeout = Duration.ofSeconds(10);
+        private Duration asyncReadTimeout = Duration.ofSeconds(5);
+        private Duration asyncConnectionMaxIdleTime = Duration.ofSeconds(60);
+        // The longest a request may take, including the SDK's own retries.
+        private Duration asyncApiCallTimeout = Duration.ofSeconds(10);
+        // The SDK's retries of the DYNAMODB store's calls, with jittered back off.  Throttled calls back off from their own
+        // base delay.  Few retries, so a throttled call soon fails as retryable rather than blocking the consumer.
+        private int sdkMaxErrorRetry = 3;
+        private Duration sdkBaseBackOff = Duration.ofMillis(25);
+        private Duration sdkThrottledBaseBackOff = Duration.ofMillis(100);
+        private Duration sdkMaxBackOff = Duration.ofSeconds(1);
+        // The longest a call may take, including the SDK's own retries.
+        private Duration sdkClientExecutionTimeout = Duration.ofSeconds(10);
+        // Limit the DynamoDB stores' reads and writes to separate rates in read and write capacity units per second.
+        // Each rate is halved on throttling of its kind, and otherwise grows steadily up to its maximum.
+        private boolean rateLimitEnabled = false;
+        private double rateLimitReadInitial = 1000;
+        private double rateLimitReadMin = 10;
+        private double rateLimitReadMax = 10000;
+        private double rateLimitWriteInitial = 1000;
+        private double rateLimitWriteMin = 10;
+        private double rateLimitWriteMax = 10000;
+        private double rateLimitIncreasePerSecond = 50;
+        private double rateLimitDecreaseFactor = 0.5;
+        // The longest a call waits for the limiter before failing as retryable.
+        private Duration rateLimitMaxWait = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Batch {
+        // Consume each poll as one batch, deduplicating the whole batch with BatchGetItem lookups.
+        private boolean enabled = false;
+        // Send the batch's outbound events without waiting on each acknowledgement, recording them once all are acked.
+        private boolean asyncSend = false;
+        // Process each batch's partition and key groups in parallel on this many workers, or in order if 0.
+        private int keyOrderedWorkers = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class ProcessedEventCache {
+        // Short-circuit the duplicate check for event Ids this instance has recently recorded as processed.
+        private boolean enabled = false;
+        private int maxEntries = 100000;
+        private Duration ttl = Duration.ofMinutes(10);
+        private BoundedCache.EvictionPolicy evictionPolicy = BoundedCache.EvictionPolicy.LRU;
+        // Load the most recently processed event Ids of each newly assigned partition into the cache, and evict those of
+        // revoked partitions.  Needs the TopicPartitionIndex on the ProcessedEvent table.
+        private boolean warmUpEnabled = false;
+        private int warmUpMaxEventsPerPartition = 1000;
+        // The longest partition assignment waits for the warm-up, after which the partitions not yet loaded start cold.
+        private Duration warmUpTimeout = Duration.ofSeconds(2);
+        private int warmUpThreads = 4;
+        // Also record the processed event Ids in a local append-only log, so they are still known after a restart.
+        private boolean logEnabled = false;
+        private String logDirectory = "processed-event-log";
+        private int logSegmentBytes = 16 * 1024 * 1024;
+        private Duration logSegmentDuration = Duration.ofMinutes(10);
+        // Keep the retention plus the segment duration within the DynamoDB retention, so the log never still holds an event
+        // the table has already expired.
+        private Duration logRetention = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class ProcessedEventFilter {
+        // Skip the lookup of event Ids that a Bloom filter of each assigned partition's processed event Ids has definitely
+        // not seen, leaving the conditional write to catch any duplicate.  Not used with the claim protocol, which makes
+        // no lookup.  Needs the TopicPartitionIndex on the ProcessedEvent table.
+        private boolean enabled = false;
+        // Each partition holds two generations of this many event Ids, so about 2.4 bytes per event Id at a 1% rate.
+        private int expectedInsertions = 100000;
+        private double falsePositiveRate = 0.01;
+        private int rebuildMaxEventsPerPartition = 100000;
+    }
+
+    @Getter
+    @Setter
+    public static class HedgedLookup {
+        // Send a second, identical duplicate check read when the first has not answered within the delay percentile of
+        // the recent reads' latency, taking whichever answers first.  Not used with the claim protocol, which makes no
+        // lookup, nor by the batch lookup.
+        private boolean enabled = false;
+        private double delayPercentile = 0.95;
+        // The delay until the minimum reads have been timed, and the least delay however fast the reads.
+        private Duration initialDelay = Duration.ofMillis(50);
+        private Duration minDelay = Duration.ofMillis(2);
+        // The last reads whose latency the percentile is taken over.
+        private int latencyWindow = 1000;
+        private int minSamples = 100;
+        // The most hedges as a fraction of lookups, with up to the burst banked for a run of slow reads.
+        private double maxHedgeRatio = 0.05;
+        private int maxBurst = 10;
+        // Threads making the reads of a blocking store, both first reads and hedges.  Unused by the DYNAMODB_ASYNC store.
+        private int threads = 16;
+    }
+
+    @Getter
+    @Setter
+    public static class Claim {
+        // Claim each event with one conditional write before processing, instead of a read before and a write after.
+        private boolean enabled = false;
+        private Duration leaseDuration = Duration.ofSeconds(30);
+        // The longest a retry backs off waiting for another instance's lease to expire.  The four back offs must stay
+        // within kafka.consumer.maxPollIntervalMs, which is checked at startup.
+        private Duration maxLeaseBackOff = Duration.ofSeconds(7);
+    }
+
+    @Getter
+    @Setter
+    public static class RetryTopics {
+        // Retry by re-publishing to delay topics instead of backing off on the consumer thread.  Single record listener only.
+        private boolean enabled = false;
+        // Including the first attempt, so there is one retry topic fewer than this.
+        private int maxAttempts = 5;
+        private Duration initialBackOff = Duration.ofSeconds(1);
+        private double multiplier = 2.0;
+        private Duration maxBackOff = Duration.ofSeconds(30);
+        private int topicPartitions = 1;
+        private short topicReplicationFactor = 1;
+    }
+
+    @Getter
+    @Setter
+    public static class Watermark {
+        // Skip records at or below each partition's completed offset watermark without looking up their event Ids.
+        private boolean enabled = false;
+        // Write the watermarks once this many records have completed, or this long after the last write.
+        private int flushEveryRecords = 500;
+        private Duration flushInterval = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Concurrency {
+        // Consumer threads for the single record listener, each taking a share of the instance's assigned partitions.
+        private int initial = 1;
+        // Scale the consumer threads between min and max on consumer lag and per record processing time.  Never above the
+        // number of partitions assigned.
+        private boolean adaptive = false;
+        private int min = 1;
+        private int max = 4;
+        private Duration evaluationInterval = Duration.ofSeconds(30);
+        // Scale up when the lag would take longer than this to work off at the current concurrency.
+        private Duration targetDrainTime = Duration.ofSeconds(60);
+        // Scale down when one thread fewer would still work off the lag within this fraction of the target.
+        private double scaleDownRatio = 0.5;
+        // The consecutive evaluations that must agree before scaling, so a passing spike does not trigger a change.
+        private int scaleUpEvaluations = 2;
+        private int scaleDownEvaluations = 5;
+        // The least time between changes, as each change restarts the consumers and so rebalances the group.
+        private Duration cooldown = Duration.ofMinutes(2);
+    }
+
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+        // Stop calling the third party service while it is failing, pausing the listeners until it recovers.
+        private boolean enabled = false;
+        // Open when the fraction of the last calls that failed with a retryable error reaches the threshold, once the
+        // window holds the minimum calls.
+        private int slidingWindowSize = 20;
+        private int minimumCalls = 10;
+        private double failureRateThreshold = 0.5;
+        // How long the listeners stay paused before the breaker lets probe calls through.
+        private Duration openDuration = Duration.ofSeconds(30);
+        // The probe calls that must all succeed for the breaker to close.  Any failure opens it again.
+        private int halfOpenProbes = 3;
+        // How long the consumer waits before a record rejected by the breaker is redelivered.
+        private Duration rejectedBackOff = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Transactions {
+        // Consume each record in a Kafka transaction, committing its outbound event and consumer offset together, with
+        // read_committed isolation.  Single record listener only.
+        private boolean enabled = false;
+        // Followed by the instance Id, so that each instance's transactional Ids are its own.
+        private String transactionIdPrefix = "demo-kafka-tx-";
+    }
 }
@@ -0,0 +1,78 @@
+package demo.kafka.retry;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import demo.kafka.exception.EventLeaseHeldException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.backoff.BackOffContext;
+import org.springframework.retry.backoff.BackOffInterruptedException;
+import org.springframework.retry.backoff.BackOffPolicy;
+import org.springframework.retry.backoff.Sleeper;
+import org.springframework.retry.backoff.ThreadWaitSleeper;
+
+/**
+ * Fixed back off, except when the last attempt found the event claimed by another instance.  Then it backs off until
+ * that claim's lease expires (up to a maximum), so the retry finds the event either completed or free to claim rather
+ * than retrying while the owner is still working on it.
+ */
+@Slf4j
+public class LeaseAwareBackOffPolicy implements BackOffPolicy {
+
+    private final long backOffPeriodMs;
+    private final long maxLeaseBackOffMs;
+    private final Sleeper sleeper;
+
+    public LeaseAwareBackOffPolicy(final long backOffPeriodMs, final Duration maxLeaseBackOff) {
+        this(backOffPeriodMs, maxLeaseBackOff, new ThreadWaitSleeper());
+    }
+
+    LeaseAwareBackOffPolicy(final long backOffPeriodMs, final Duration maxLeaseBackOff, final Sleeper sleeper) {
+        this.backOffPeriodMs = backOffPeriodMs;
+        this.maxLeaseBackOffMs = maxLeaseBackOff.toMillis();
+        this.sleeper = sleeper;
+    }
+
+    @Override
+    public BackOffContext start(final RetryContext context) {
+        return new LeaseAwareBackOffContext(context);
+    }
+
+    @Override
+    public void backOff(final BackOffContext backOffContext) throws BackOffInterruptedException {
+        final EventLeaseHeldException leaseHeld = leaseHeldCause(((LeaseAwareBackOffContext) backOffContext).retryContext.getLastThrowable());
+        long period = backOffPeriodMs;
+        if (leaseHeld != null) {
+            period = Math.max(0, Math.min(maxLeaseBackOffMs, leaseHeld.getLeaseExpiry().toEpochMilli() - Instant.now().toEpochMilli()));
+            log.debug("Event claimed by another instance, backing off for {}ms", period);
+        }
+        try {
+            sleeper.sleep(period);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BackOffInterruptedException("Thread interrupted while sleeping", e);
+        }
+    }
+
+    /**
+     * The listener's exception reaches the retry template wrapped by the listener adapter, so search the cause chain.
+     */
+    private static EventLeaseHeldException leaseHeldCause(Throwable throwable) {
+        while (throwable != null) {
+            if (throwable instanceof EventLeaseHeldException) {
+                return (EventLeaseHeldException) throwable;
+            }
+            throwable = throwable.getCause();
+        }
+        return null;
+    }
+
+    private static class LeaseAwareBackOffContext implements BackOffContext {
+        private final RetryContext retryContext;
+
+        private LeaseAwareBackOffContext(final RetryContext retryContext) {
+            this.retryContext = retryContext;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package demo.kafka.retry;
+
+import demo.kafka.metrics.DemoMetrics;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.listener.adapter.RetryingMessageListenerAdapter;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.listener.RetryListenerSupport;
+
+/**
+ * Counts the retries made for each record by the listener's retry template, once its retries are over.
+ *
+ * Every failed attempt was retried, except the last when the retries were exhausted.
+ */
+@RequiredArgsConstructor
+public class RetryMetricsListener extends RetryListenerSupport {
+
+    private final DemoMetrics metrics;
+
+    @Override
+    public <T, E extends Throwable> void close(final RetryContext context, final RetryCallback<T, E> callback, final Throwable throwable) {
+        final ConsumerRecord<?, ?> record = (ConsumerRecord<?, ?>) context.getAttribute(RetryingMessageListenerAdapter.CONTEXT_RECORD);
+        final int retries = throwable == null ? context.getRetryCount() : context.getRetryCount() - 1;
+        if (record != null && retries > 0) {
+            metrics.retries(DemoMetrics.topicPartition(record), retries);
+        }
+    }
+}
@@ -1,30 +1,39 @@
 package demo.kafka.service;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
-import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
-import demo.kafka.domain.ProcessedEvent;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.circuitbreaker.ThirdpartyCircuitBreaker;
 import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.exception.CircuitBreakerOpenException;
 import demo.kafka.exception.DuplicateEventException;
 import demo.kafka.exception.KafkaDemoException;
 import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.filter.ProcessedEventFilter;
+import demo.kafka.hedge.HedgedLookup;
 import demo.kafka.lib.KafkaClient;
+import demo.kafka.metrics.DemoMetrics;
+import demo.kafka.metrics.DemoMetrics.DuplicateSource;
+import demo.kafka.metrics.DemoMetrics.Stage;
 import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.IdempotencyStore;
+import demo.kafka.thirdparty.ThirdpartyClient;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
-import org.springframework.web.client.RestTemplate;
 
 @Service
 @Slf4j
@@ -38,36 +47,214 @@ public class DemoService {;
     private KafkaClient kafkaClient;
 
     @Autowired
-    private DynamoDBMapper dynamoDBMapper;
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private ProcessedEventCache processedEventCache;
+
+    @Autowired
+    private ProcessedEventFilter processedEventFilter;
+
+    @Autowired
+    private HedgedLookup hedgedLookup;
+
+    @Autowired
+    private ThirdpartyClient thirdpartyClient;
+
+    @Autowired
+    private DemoMetrics metrics;
+
+    @Autowired
+    private ThirdpartyCircuitBreaker circuitBreaker;
+
+    public void process(String eventId, String key, DemoInboundEvent event, TopicPartition topicPartition, long offset) {
+        process(eventId, key, event, topicPartition, offset, true);
+    }
+
+    /**
+     * Process an event that has already been checked and found not to be a duplicate, such as by the batch lookup.
+     *
+     * The conditional save still guards against another consumer having processed the same event in the meantime.
+     */
+    public void processNew(String eventId, String key, DemoInboundEvent event, TopicPartition topicPartition, long offset) {
+        process(eventId, key, event, topicPartition, offset, false);
+    }
+
+    /**
+     * Return those of the given event Ids that have already been processed.
+     *
+     * Only the event Ids not in the recently processed cache are looked up in the idempotency store, in a single batch
+     * lookup.
+     */
+    public Set<String> findProcessedEventIds(Collection<String> eventIds, String topic) {
+        return metrics.batchStageTimer(Stage.DEDUP_BATCH_LOOKUP, topic).record(() -> lookupProcessedEventIds(eventIds));
+    }
 
-    public void process(String eventId, String key, DemoInboundEvent event) {
+    private Set<String> lookupProcessedEventIds(Collection<String> eventIds) {
+        final Set<String> processedEventIds = new HashSet<>();
+        final Set<String> uncachedEventIds = new LinkedHashSet<>();
+        eventIds.forEach(eventId -> {
+            if (processedEventCache.isProcessed(eventId)) {
+                processedEventIds.add(eventId);
+            } else {
+                uncachedEventIds.add(eventId);
+            }
+        });
+
+        if (!uncachedEventIds.isEmpty()) {
+            idempotencyStore.findProcessed(uncachedEventIds).forEach(eventId -> {
+                processedEventIds.add(eventId);
+                processedEventCache.markProcessed(eventId);
+            });
+        }
+        log.debug("Batch lookup found {} of {} event Ids already processed", processedEventIds.size(), eventIds.size());
+        return processedEventIds;
+    }
+
+    /**
+     * Process an event found not to be a duplicate by the batch lookup, without waiting for the outbound send to be
+     * acknowledged, so that many sends can be in flight at once.
+     *
+     * Once the returned future completes the caller must record the event with recordProcessed, or if it failed give
+     * it up with abandon, before its offset is committed.
+     */
+    public CompletableFuture<SendResult<String, String>> processNewAsync(String eventId, String key, DemoInboundEvent event, TopicPartition topicPartition, long offset) {
         try {
-            // 1. Check if the event is a duplicate.
-            Map<String, AttributeValue> eav = new HashMap<String, AttributeValue>();
-            eav.put(":v1", new AttributeValue().withS(eventId));
-            DynamoDBQueryExpression<ProcessedEvent> queryExpression = new DynamoDBQueryExpression<ProcessedEvent>()
-                    .withKeyConditionExpression("Id = :v1")
-                    .withExpressionAttributeValues(eav);
-            List<ProcessedEvent> duplicateEventIds = dynamoDBMapper.query(ProcessedEvent.class, queryExpression);
-            if(duplicateEventIds.size()>0) {
-                log.info("Duplicate event received: " + eventId);
-                throw new DuplicateEventException(eventId);
+            begin(eventId, false, topicPartition, offset);
+            try {
+                circuitBreaker.execute(() -> metrics.stageTimer(Stage.THIRDPARTY_CALL, topicPartition).record(() -> callThirdparty(key)));
+                // The produce stage is timed until the send is acknowledged.
+                final Timer.Sample produceSample = Timer.start();
+                final CompletableFuture<SendResult<String, String>> result = kafkaClient.sendMessageAsync(key, event.getData());
+                result.whenComplete((sendResult, e) -> produceSample.stop(metrics.stageTimer(Stage.OUTBOUND_PRODUCE, topicPartition)));
+                return result;
+            } catch (Exception e) {
+                abandon(eventId);
+                throw e;
+            }
+        } catch (DuplicateEventException | CircuitBreakerOpenException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Exception thrown: " + e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Record the event as processed, once its outbound event has been sent.
+     */
+    public void recordProcessed(String eventId, TopicPartition topicPartition, long offset) {
+        metrics.stageTimer(Stage.DEDUP_WRITE, topicPartition).record(() -> write(eventId, topicPartition, offset));
+        log.debug("Event persisted with Id: {}", eventId);
+    }
+
+    /**
+     * As recordProcessed, without waiting for the idempotency store, so that the writes for many events can be in flight
+     * at once.  The returned future completes exceptionally with a DuplicateEventException if another consumer recorded
+     * the event first.
+     */
+    public CompletableFuture<Void> recordProcessedAsync(String eventId, TopicPartition topicPartition, long offset) {
+        final Timer.Sample writeSample = Timer.start();
+        final CompletableFuture<Void> result;
+        if (properties.getClaim().isEnabled()) {
+            result = idempotencyStore.completeAsync(eventId, ownerId()).thenAccept(completed -> {
+                if (!completed) {
+                    log.warn("Lease on event Id: {} expired before completion, so it may have been processed again", eventId);
+                }
+            });
+        } else {
+            result = idempotencyStore.markProcessedAsync(eventId, topicPartition, offset).whenComplete((done, e) -> {
+                if (e != null && (e instanceof DuplicateEventException || e.getCause() instanceof DuplicateEventException)) {
+                    // Already recorded by another consumer, so still known to be processed.
+                    metrics.duplicate(DuplicateSource.CONDITIONAL_WRITE, topicPartition);
+                    markProcessed(eventId, topicPartition);
+                }
+            });
+        }
+        return result.whenComplete((done, e) -> {
+            writeSample.stop(metrics.stageTimer(Stage.DEDUP_WRITE, topicPartition));
+            if (e == null) {
+                markProcessed(eventId, topicPartition);
+                log.debug("Event persisted with Id: {}", eventId);
             }
+        });
+    }
+
+    private void write(String eventId, TopicPartition topicPartition, long offset) {
+        if (properties.getClaim().isEnabled()) {
+            if (!idempotencyStore.complete(eventId, ownerId())) {
+                log.warn("Lease on event Id: {} expired before completion, so it may have been processed again", eventId);
+            }
+        } else {
+            try {
+                idempotencyStore.markProcessed(eventId, topicPartition, offset);
+            } catch (DuplicateEventException e) {
+                // Already recorded by another consumer, so still known to be processed.
+                metrics.duplicate(DuplicateSource.CONDITIONAL_WRITE, topicPartition);
+                markProcessed(eventId, topicPartition);
+                throw e;
+            }
+        }
+        markProcessed(eventId, topicPartition);
+    }
+
+    /**
+     * In a Kafka transaction, record the event only once the outbound send and the consumer offset have been committed.
+     * An event whose transaction is rolled back is redelivered, so must not be found as processed.  If the write fails
+     * after the commit, the event is not redelivered, so only a later repeat of it goes unrecognised.
+     */
+    private void recordProcessedAfterCommit(String eventId, TopicPartition topicPartition, long offset) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    recordProcessed(eventId, topicPartition, offset);
+                } catch (DuplicateEventException e) {
+                    log.debug("Duplicate message received: " + e.getMessage());
+                } catch (Exception e) {
+                    log.error("Error recording event Id: " + eventId + " as processed after the transaction committed", e);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    abandon(eventId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Give up processing of the event, so that its redelivery is not blocked by this instance's claim.
+     */
+    public void abandon(String eventId) {
+        if (properties.getClaim().isEnabled()) {
+            idempotencyStore.release(eventId, ownerId());
+        }
+    }
+
+    private void process(String eventId, String key, DemoInboundEvent event, TopicPartition topicPartition, long offset, boolean checkForDuplicate) {
+        try {
+            // 1. Check if the event is a duplicate.
+            begin(eventId, checkForDuplicate, topicPartition, offset);
 
             // 2. Perform the event processing.
-            callThirdparty(key);
-            kafkaClient.sendMessage(key, event.getData());
+            try {
+                circuitBreaker.execute(() -> metrics.stageTimer(Stage.THIRDPARTY_CALL, topicPartition).record(() -> callThirdparty(key)));
+                metrics.stageTimer(Stage.OUTBOUND_PRODUCE, topicPartition).record(() -> kafkaClient.sendMessage(key, event.getData()));
+            } catch (Exception e) {
+                abandon(eventId);
+                throw e;
+            }
 
             // 3. Record the processed event Id to allow duplicates to be detected.
-            ProcessedEvent processedEvent = new ProcessedEvent(eventId);
-            DynamoDBSaveExpression saveExpression = new DynamoDBSaveExpression()
-                    .withExpectedEntry("Id", new ExpectedAttributeValue().withExists(false));
-            dynamoDBMapper.save(processedEvent, saveExpression);
-            log.debug("Event persisted with Id: {}", eventId);
-        } catch (ConditionalCheckFailedException e) {
-            log.info("ConditionalCheckFailedException Error: " + e.getMessage());
-            throw new DuplicateEventException(eventId);
-        } catch (DuplicateEventException e) {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                recordProcessedAfterCommit(eventId, topicPartition, offset);
+            } else {
+                recordProcessed(eventId, topicPartition, offset);
+            }
+        } catch (DuplicateEventException | CircuitBreakerOpenException e) {
             throw e;
         } catch (Exception e) {
             log.error("Exception thrown: " + e.getMessage(), e);
@@ -75,10 +262,64 @@ public class DemoService {;
         }
     }
 
+    /**
+     * Fail with a DuplicateEventException if the event has already been processed.
+     *
+     * Under the claim protocol the event is claimed instead, in a single conditional write that also fails if another
+     * instance is processing it.  Otherwise the store is read, unless the caller has already checked it.
+     */
+    private void begin(String eventId, boolean checkForDuplicate, TopicPartition topicPartition, long offset) {
+        if (checkForDuplicate || properties.getClaim().isEnabled()) {
+            metrics.stageTimer(Stage.DEDUP_LOOKUP, topicPartition).record(() -> checkForDuplicate(eventId, checkForDuplicate, topicPartition, offset));
+        }
+    }
+
+    private void checkForDuplicate(String eventId, boolean checkForDuplicate, TopicPartition topicPartition, long offset) {
+        if (checkForDuplicate && processedEventCache.isProcessed(eventId)) {
+            log.info("Duplicate event received (cached): " + eventId);
+            metrics.duplicate(DuplicateSource.LOOKUP, topicPartition);
+            throw new DuplicateEventException(eventId);
+        }
+        try {
+            if (properties.getClaim().isEnabled()) {
+                idempotencyStore.claim(eventId, ownerId(), properties.getClaim().getLeaseDuration(), topicPartition, offset);
+            } else if (checkForDuplicate) {
+                final ProcessedEventFilter.Result filtered = processedEventFilter.check(eventId, topicPartition, offset);
+                if (filtered == ProcessedEventFilter.Result.ABSENT) {
+                    // Definitely not processed, so straight to processing.  The conditional write still catches a
+                    // duplicate from before the filter's coverage.
+                    return;
+                }
+                if (hedgedLookup.isProcessed(eventId)) {
+                    throw new DuplicateEventException(eventId);
+                }
+                if (filtered == ProcessedEventFilter.Result.MAYBE) {
+                    processedEventFilter.falsePositive(topicPartition);
+                }
+            }
+        } catch (DuplicateEventException e) {
+            log.info("Duplicate event received: " + eventId);
+            metrics.duplicate(properties.getClaim().isEnabled() ? DuplicateSource.CONDITIONAL_WRITE : DuplicateSource.LOOKUP, topicPartition);
+            markProcessed(eventId, topicPartition);
+            throw e;
+        }
+    }
+
+    /**
+     * Add the event to the processed event cache and its partition's filter, once confirmed by the idempotency store.
+     */
+    private void markProcessed(String eventId, TopicPartition topicPartition) {
+        processedEventCache.markProcessed(eventId, topicPartition);
+        processedEventFilter.markProcessed(eventId, topicPartition);
+    }
+
+    private String ownerId() {
+        return properties.getInstanceId().toString();
+    }
+
     private void callThirdparty(String key) {
-        RestTemplate restTemplate = new RestTemplate();
         try {
-            ResponseEntity<String> response = restTemplate.getForEntity(properties.getThirdpartyEndpoint() + "/" + key, String.class);
+            ResponseEntity<String> response = thirdpartyClient.get(key);
             if (response.getStatusCodeValue() != 200) {
                 throw new RuntimeException("error " + response.getStatusCodeValue());
             }
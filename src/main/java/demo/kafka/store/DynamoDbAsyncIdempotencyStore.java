@@ -0,0 +1,521 @@
+package demo.kafka.store;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import demo.kafka.domain.ProcessedEvent;
+import demo.kafka.domain.ProcessedEventStatus;
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.exception.DynamoDbThrottledException;
+import demo.kafka.exception.EventLeaseHeldException;
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryUtils;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TimeToLiveDescription;
+
+/**
+ * Idempotency store backed by the DynamoDB ProcessedEvent table, through the non-blocking async client.
+ *
+ * Each operation is a request on the async client, returning a CompletableFuture, so a caller can have many requests in
+ * flight and overlap them with other work.  The synchronous operations wait on the same requests.  The records, their
+ * conditions and their expiry are those of ProcessedEventTable, as for DynamoDbIdempotencyStore, so the two stores can
+ * share a table.  Lookups are always by GetItem.
+ *
+ * The requests in flight are bounded.  A request over the limit is queued, without blocking the caller's thread, and
+ * started as an earlier request completes and hands on its permit.  One still queued after the acquire timeout fails as
+ * retryable, so a backlog holds the caller back rather than queueing without limit in the client.
+ *
+ * Requests go through the same rate limiter as the synchronous store's calls, which delays them without blocking.  A
+ * request throttled by DynamoDB, once the client's own retries are spent, cuts the limiter's rate and fails as a
+ * retryable DynamoDbThrottledException, as with the synchronous store.
+ */
+@Slf4j
+public class DynamoDbAsyncIdempotencyStore implements IdempotencyStore {
+
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+
+    private final KafkaDemoProperties.DynamoDb config;
+
+    private final MeterRegistry meterRegistry;
+
+    private final DynamoDbRateLimiter rateLimiter;
+
+    // Requests waiting for a permit, in order, guarded by itself along with the available permits.
+    private final Deque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+    private int availablePermits;
+
+    public DynamoDbAsyncIdempotencyStore(final DynamoDbAsyncClient dynamoDbAsyncClient, final KafkaDemoProperties.DynamoDb config,
+                                         final MeterRegistry meterRegistry, final DynamoDbRateLimiter rateLimiter) {
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        this.rateLimiter = rateLimiter;
+        this.availablePermits = config.getAsyncMaxInFlight();
+        Gauge.builder("kafkademo.dynamodb.async.inflight", this, store -> store.getInFlight())
+                .description("DynamoDB requests in flight on the async client")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public boolean isProcessed(final String eventId) {
+        return join(isProcessedAsync(eventId));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isProcessedAsync(final String eventId) {
+        return submit("GetItem", DynamoDbRateLimiter.Capacity.READ, () -> dynamoDbAsyncClient.getItem(request -> request
+                        .tableName(ProcessedEvent.TABLE_NAME)
+                        .key(key(eventId))
+                        .projectionExpression(ProcessedEventTable.LOOKUP_PROJECTION)
+                        .expressionAttributeNames(ProcessedEventTable.lookupAttributeNames())
+                        .consistentRead(config.isConsistentReads())
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)))
+                .thenApply(response -> {
+                    recordConsumedCapacity("GetItem", DynamoDbRateLimiter.Capacity.READ, config.isConsistentReads(), response.consumedCapacity());
+                    return response.hasItem() && isProcessed(response.item(), ProcessedEventTable.nowSeconds());
+                });
+    }
+
+    @Override
+    public Set<String> findProcessed(final Collection<String> eventIds) {
+        return join(findProcessedAsync(eventIds));
+    }
+
+    /**
+     * The lookup is made with BatchGetItem in chunks of 100 keys, all in flight together.
+     */
+    public CompletableFuture<Set<String>> findProcessedAsync(final Collection<String> eventIds) {
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        new LinkedHashSet<>(eventIds).forEach(eventId -> keys.add(key(eventId)));
+
+        final Set<String> processedEventIds = Collections.synchronizedSet(new HashSet<>());
+        final List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += ProcessedEventTable.BATCH_GET_ITEM_LIMIT) {
+            final Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(ProcessedEvent.TABLE_NAME, KeysAndAttributes.builder()
+                    .keys(keys.subList(from, Math.min(from + ProcessedEventTable.BATCH_GET_ITEM_LIMIT, keys.size())))
+                    .projectionExpression(ProcessedEventTable.LOOKUP_PROJECTION)
+                    .expressionAttributeNames(ProcessedEventTable.lookupAttributeNames())
+                    .consistentRead(config.isConsistentReads())
+                    .build());
+            chunks.add(batchGetItem(requestItems, 0, processedEventIds));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApply(done -> processedEventIds);
+    }
+
+    /**
+     * Keys not read because of throughput limits are requested again, after a back off that grows with each attempt.
+     */
+    private CompletableFuture<Void> batchGetItem(final Map<String, KeysAndAttributes> requestItems, final int attempt, final Set<String> processedEventIds) {
+        return submit("BatchGetItem", DynamoDbRateLimiter.Capacity.READ, () -> dynamoDbAsyncClient.batchGetItem(request -> request
+                        .requestItems(requestItems)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)))
+                .thenCompose((BatchGetItemResponse response) -> {
+                    response.consumedCapacity().forEach(capacity -> recordConsumedCapacity("BatchGetItem", DynamoDbRateLimiter.Capacity.READ, config.isConsistentReads(), capacity));
+                    final long nowSeconds = ProcessedEventTable.nowSeconds();
+                    response.responses().getOrDefault(ProcessedEvent.TABLE_NAME, Collections.emptyList()).stream()
+                            .filter(item -> isProcessed(item, nowSeconds))
+                            .forEach(item -> processedEventIds.add(item.get(ProcessedEvent.ID).s()));
+                    if (response.unprocessedKeys().isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    final long backOffMs = ProcessedEventTable.unprocessedKeysBackOffMs(attempt + 1);
+                    return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(backOffMs, TimeUnit.MILLISECONDS))
+                            .thenCompose(delayed -> batchGetItem(response.unprocessedKeys(), attempt + 1, processedEventIds));
+                });
+    }
+
+    @Override
+    public void markProcessed(final String eventId, final TopicPartition topicPartition, final long offset) {
+        join(markProcessedAsync(eventId, topicPartition, offset));
+    }
+
+    /**
+     * The put is conditional on the Id not already existing (or having expired), so of two consumers racing to record
+     * the same event only one succeeds.
+     */
+    @Override
+    public CompletableFuture<Void> markProcessedAsync(final String eventId, final TopicPartition topicPartition, final long offset) {
+        final long nowSeconds = ProcessedEventTable.nowSeconds();
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put(ProcessedEvent.ID, s(eventId));
+        item.put(ProcessedEvent.EXPIRES_AT, n(ProcessedEventTable.expiresAt(nowSeconds, config.getRetention())));
+        if (topicPartition != null) {
+            item.put(ProcessedEvent.TOPIC_PARTITION, s(topicPartition.toString()));
+            item.put(ProcessedEvent.RECORD_OFFSET, n(offset));
+        }
+        return submit("PutItem", DynamoDbRateLimiter.Capacity.WRITE, () -> dynamoDbAsyncClient.putItem(request -> request
+                        .tableName(ProcessedEvent.TABLE_NAME)
+                        .item(item)
+                        .conditionExpression(ProcessedEventTable.MARK_PROCESSED_CONDITION)
+                        .expressionAttributeNames(ProcessedEventTable.markProcessedAttributeNames())
+                        .expressionAttributeValues(Collections.singletonMap(":nowSeconds", n(nowSeconds)))
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)))
+                .handle((response, e) -> {
+                    if (response != null) {
+                        recordConsumedCapacity("PutItem", DynamoDbRateLimiter.Capacity.WRITE, false, response.consumedCapacity());
+                    }
+                    if (unwrap(e) instanceof ConditionalCheckFailedException) {
+                        log.info("ConditionalCheckFailedException Error: " + unwrap(e).getMessage());
+                        throw new DuplicateEventException(eventId);
+                    }
+                    rethrow(e);
+                    return null;
+                });
+    }
+
+    @Override
+    public void claim(final String eventId, final String ownerId, final Duration lease, final TopicPartition topicPartition, final long offset) {
+        join(claimAsync(eventId, ownerId, lease, topicPartition, offset));
+    }
+
+    /**
+     * Claim with a single conditional PutItem.  Only when the condition fails is the current record read (consistently),
+     * to tell a completed event from one claimed by another owner.
+     */
+    public CompletableFuture<Void> claimAsync(final String eventId, final String ownerId, final Duration lease, final TopicPartition topicPartition, final long offset) {
+        final long now = System.currentTimeMillis();
+        final long nowSeconds = now / 1000;
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put(ProcessedEvent.ID, s(eventId));
+        item.put(ProcessedEvent.STATUS, s(ProcessedEventStatus.IN_PROGRESS.name()));
+        item.put(ProcessedEvent.OWNER_ID, s(ownerId));
+        item.put(ProcessedEvent.LEASE_EXPIRY, n(now + lease.toMillis()));
+        item.put(ProcessedEvent.EXPIRES_AT, n(ProcessedEventTable.expiresAt(nowSeconds, config.getRetention())));
+        if (topicPartition != null) {
+            item.put(ProcessedEvent.TOPIC_PARTITION, s(topicPartition.toString()));
+            item.put(ProcessedEvent.RECORD_OFFSET, n(offset));
+        }
+
+        final Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":inProgress", s(ProcessedEventStatus.IN_PROGRESS.name()));
+        values.put(":owner", s(ownerId));
+        values.put(":now", n(now));
+        values.put(":nowSeconds", n(nowSeconds));
+        return submit("PutItem", DynamoDbRateLimiter.Capacity.WRITE, () -> dynamoDbAsyncClient.putItem(request -> request
+                        .tableName(ProcessedEvent.TABLE_NAME)
+                        .item(item)
+                        .conditionExpression(ProcessedEventTable.CLAIM_CONDITION)
+                        .expressionAttributeNames(ProcessedEventTable.claimAttributeNames())
+                        .expressionAttributeValues(values)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)))
+                .handle((response, e) -> {
+                    if (response != null) {
+                        recordConsumedCapacity("PutItem", DynamoDbRateLimiter.Capacity.WRITE, false, response.consumedCapacity());
+                    }
+                    if (unwrap(e) instanceof ConditionalCheckFailedException) {
+                        return claimFailed(eventId, now);
+                    }
+                    rethrow(e);
+                    return CompletableFuture.<Void>completedFuture(null);
+                })
+                .thenCompose(result -> result);
+    }
+
+    private CompletableFuture<Void> claimFailed(final String eventId, final long now) {
+        return submit("GetItem", DynamoDbRateLimiter.Capacity.READ, () -> dynamoDbAsyncClient.getItem(request -> request
+                        .tableName(ProcessedEvent.TABLE_NAME)
+                        .key(key(eventId))
+                        .consistentRead(true)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)))
+                .thenApply(response -> {
+                    recordConsumedCapacity("GetItem", DynamoDbRateLimiter.Capacity.READ, true, response.consumedCapacity());
+                    final Map<String, AttributeValue> current = response.hasItem() ? response.item() : null;
+                    if (current == null || ProcessedEventTable.isExpired(value(current, ProcessedEvent.EXPIRES_AT), now / 1000)) {
+                        // Released (or expired) between the claim and the read, so retry straight away.
+                        throw new EventLeaseHeldException(eventId, null, Instant.ofEpochMilli(now));
+                    }
+                    if (!ProcessedEventTable.isInProgress(value(current, ProcessedEvent.STATUS))) {
+                        log.info("Claim failed as event already completed: " + eventId);
+                        throw new DuplicateEventException(eventId);
+                    }
+                    throw new EventLeaseHeldException(eventId, current.get(ProcessedEvent.OWNER_ID).s(),
+                            Instant.ofEpochMilli(Long.parseLong(current.get(ProcessedEvent.LEASE_EXPIRY).n())));
+                });
+    }
+
+    @Override
+    public boolean complete(final String eventId, final String ownerId) {
+        return join(completeAsync(eventId, ownerId));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> completeAsync(final String eventId, final String ownerId) {
+        final Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":inProgress", s(ProcessedEventStatus.IN_PROGRESS.name()));
+        values.put(":completed", s(ProcessedEventStatus.COMPLETED.name()));
+        values.put(":owner", s(ownerId));
+        // The retention runs from completion.
+        values.put(":expiresAt", n(ProcessedEventTable.expiresAt(ProcessedEventTable.nowSeconds(), config.getRetention())));
+        return submit("UpdateItem", DynamoDbRateLimiter.Capacity.WRITE, () -> dynamoDbAsyncClient.updateItem(request -> request
+                        .tableName(ProcessedEvent.TABLE_NAME)
+                        .key(key(eventId))
+                        .updateExpression(ProcessedEventTable.COMPLETE_UPDATE)
+                        .conditionExpression(ProcessedEventTable.OWNED_CONDITION)
+                        .expressionAttributeNames(ProcessedEventTable.completeAttributeNames())
+                        .expressionAttributeValues(values)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)))
+                .handle((response, e) -> {
+                    if (response != null) {
+                        recordConsumedCapacity("UpdateItem", DynamoDbRateLimiter.Capacity.WRITE, false, response.consumedCapacity());
+                    }
+                    if (unwrap(e) instanceof ConditionalCheckFailedException) {
+                        return false;
+                    }
+                    rethrow(e);
+                    return true;
+                });
+    }
+
+    @Override
+    public void release(final String eventId, final String ownerId) {
+        final Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":inProgress", s(ProcessedEventStatus.IN_PROGRESS.name()));
+        values.put(":owner", s(ownerId));
+        join(submit("DeleteItem", DynamoDbRateLimiter.Capacity.WRITE, () -> dynamoDbAsyncClient.deleteItem(request -> request
+                        .tableName(ProcessedEvent.TABLE_NAME)
+                        .key(key(eventId))
+                        .conditionExpression(ProcessedEventTable.OWNED_CONDITION)
+                        .expressionAttributeNames(ProcessedEventTable.releaseAttributeNames())
+                        .expressionAttributeValues(values)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)))
+                .handle((response, e) -> {
+                    if (response != null) {
+                        recordConsumedCapacity("DeleteItem", DynamoDbRateLimiter.Capacity.WRITE, false, response.consumedCapacity());
+                    }
+                    if (unwrap(e) instanceof ConditionalCheckFailedException) {
+                        log.debug("Claim on event Id: {} no longer held by: {}", eventId, ownerId);
+                        return null;
+                    }
+                    rethrow(e);
+                    return null;
+                }));
+    }
+
+    /**
+     * Query the TopicPartitionIndex newest offset first, a page at a time, until the limit of records has been read.  The
+     * index only supports eventually consistent reads, so the very latest records may be missed.
+     */
+    @Override
+    public Set<String> findRecentlyProcessed(final TopicPartition topicPartition, final int limit) {
+        final Set<String> processedEventIds = new HashSet<>();
+        int read = 0;
+        Map<String, AttributeValue> startKey = null;
+        do {
+            final Map<String, AttributeValue> exclusiveStartKey = startKey;
+            final int pageLimit = limit - read;
+            final QueryResponse response = join(submit("Query", DynamoDbRateLimiter.Capacity.READ, () -> dynamoDbAsyncClient.query(request -> request
+                    .tableName(ProcessedEvent.TABLE_NAME)
+                    .indexName(ProcessedEvent.TOPIC_PARTITION_INDEX)
+                    .keyConditionExpression(ProcessedEventTable.TOPIC_PARTITION_KEY_CONDITION)
+                    .projectionExpression(ProcessedEventTable.LOOKUP_PROJECTION)
+                    .expressionAttributeNames(ProcessedEventTable.topicPartitionQueryAttributeNames())
+                    .expressionAttributeValues(Collections.singletonMap(":topicPartition", s(topicPartition.toString())))
+                    .scanIndexForward(false)
+                    .limit(pageLimit)
+                    .exclusiveStartKey(exclusiveStartKey)
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL))));
+            recordConsumedCapacity("Query", DynamoDbRateLimiter.Capacity.READ, false, response.consumedCapacity());
+            final long nowSeconds = ProcessedEventTable.nowSeconds();
+            response.items().stream()
+                    .filter(item -> isProcessed(item, nowSeconds))
+                    .forEach(item -> processedEventIds.add(item.get(ProcessedEvent.ID).s()));
+            read += response.count();
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+        } while (startKey != null && read < limit);
+        return processedEventIds;
+    }
+
+    /**
+     * Enable TTL on the ExpiresAt attribute, unless already enabled.  Best effort, as the table may not exist yet or the
+     * credentials may not allow it, in which case TTL has to be enabled by whoever manages the table.
+     */
+    public void enableTimeToLive() {
+        try {
+            final TimeToLiveDescription description = dynamoDbAsyncClient.describeTimeToLive(request -> request
+                    .tableName(ProcessedEvent.TABLE_NAME)).join().timeToLiveDescription();
+            if (ProcessedEventTable.isTimeToLiveEnabled(description.timeToLiveStatusAsString(), description.attributeName())) {
+                return;
+            }
+            dynamoDbAsyncClient.updateTimeToLive(request -> request
+                    .tableName(ProcessedEvent.TABLE_NAME)
+                    .timeToLiveSpecification(specification -> specification
+                            .attributeName(ProcessedEvent.EXPIRES_AT)
+                            .enabled(true))).join();
+            ProcessedEventTable.timeToLiveEnabled();
+        } catch (CompletionException | SdkException e) {
+            ProcessedEventTable.timeToLiveUnverified(unwrap(e));
+        }
+    }
+
+    public int getInFlight() {
+        synchronized (waiting) {
+            return config.getAsyncMaxInFlight() - availablePermits;
+        }
+    }
+
+    /**
+     * Make the request once a permit is available, releasing it when the request completes.
+     */
+    private <T> CompletableFuture<T> submit(final String operation, final DynamoDbRateLimiter.Capacity capacity,
+                                            final Supplier<CompletableFuture<T>> request) {
+        return translateThrottling(operation, capacity, rateLimiter.acquireAsync(operation, capacity)
+                .thenCompose(allowed -> acquire())
+                .thenCompose(permit -> start(request)));
+    }
+
+    private <T> CompletableFuture<T> start(final Supplier<CompletableFuture<T>> request) {
+        try {
+            return request.get().whenComplete((result, e) -> release());
+        } catch (RuntimeException e) {
+            release();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Take a permit if one is available, or else queue for one, failing as retryable if none is handed on within the
+     * acquire timeout.
+     */
+    private CompletableFuture<Void> acquire() {
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized (waiting) {
+            if (availablePermits > 0) {
+                availablePermits--;
+                return CompletableFuture.completedFuture(null);
+            }
+            waiting.add(permit);
+        }
+        return permit.orTimeout(config.getAsyncInFlightAcquireTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    synchronized (waiting) {
+                        waiting.remove(permit);
+                    }
+                    throw new KafkaDemoRetryableException(
+                            new TimeoutException("No DynamoDB request permit within " + config.getAsyncInFlightAcquireTimeout()));
+                });
+    }
+
+    /**
+     * Hand the permit on to the longest waiting request still queued, which then starts on this thread, or else return it.
+     */
+    private void release() {
+        while (true) {
+            final CompletableFuture<Void> next;
+            synchronized (waiting) {
+                next = waiting.poll();
+                if (next == null) {
+                    availablePermits++;
+                    return;
+                }
+            }
+            // A request that has just timed out cannot take the permit, so it goes to the next.
+            if (next.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fail a throttled request with a DynamoDbThrottledException, leaving any other failure as it is.
+     */
+    private <T> CompletableFuture<T> translateThrottling(final String operation, final DynamoDbRateLimiter.Capacity capacity,
+                                                         final CompletableFuture<T> response) {
+        return response.exceptionally(e -> {
+            final Throwable cause = unwrap(e);
+            if (cause instanceof SdkException && isThrottling((SdkException) cause)) {
+                rateLimiter.throttledByService(operation, capacity);
+                throw new DynamoDbThrottledException("DynamoDB throttled " + operation + ": " + cause.getMessage(), cause);
+            }
+            throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+        });
+    }
+
+    private static boolean isThrottling(final SdkException e) {
+        return e instanceof ProvisionedThroughputExceededException || e instanceof RequestLimitExceededException || RetryUtils.isThrottlingException(e);
+    }
+
+    /**
+     * Wait for the result, rethrowing the failure as the synchronous store would have thrown it.
+     */
+    private static <T> T join(final CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private static Throwable unwrap(final Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static void rethrow(final Throwable e) {
+        if (e != null) {
+            throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+        }
+    }
+
+    private void recordConsumedCapacity(final String operation, final DynamoDbRateLimiter.Capacity capacity, final boolean consistent,
+                                        final ConsumedCapacity consumedCapacity) {
+        if (consumedCapacity != null && consumedCapacity.capacityUnits() != null) {
+            ProcessedEventTable.recordConsumedCapacity(meterRegistry, operation, capacity, consistent, consumedCapacity.capacityUnits());
+            rateLimiter.consumed(capacity, consumedCapacity.capacityUnits());
+        }
+    }
+
+    private static boolean isProcessed(final Map<String, AttributeValue> item, final long nowSeconds) {
+        return ProcessedEventTable.isProcessed(value(item, ProcessedEvent.STATUS), value(item, ProcessedEvent.EXPIRES_AT), nowSeconds);
+    }
+
+    /**
+     * The attribute's string or number value, or null if the item does not have it.
+     */
+    private static String value(final Map<String, AttributeValue> item, final String attribute) {
+        final AttributeValue value = item.get(attribute);
+        return value == null ? null : value.s() != null ? value.s() : value.n();
+    }
+
+    private static Map<String, AttributeValue> key(final String eventId) {
+        return Collections.singletonMap(ProcessedEvent.ID, s(eventId));
+    }
+
+    private static AttributeValue s(final String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue n(final long value) {
+        return AttributeValue.builder().n(String.valueOf(value)).build();
+    }
+}
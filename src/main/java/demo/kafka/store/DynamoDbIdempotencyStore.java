@@ -0,0 +1,379 @@
+package demo.kafka.store;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.TimeToLiveDescription;
+import com.amazonaws.services.dynamodbv2.model.TimeToLiveSpecification;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateTimeToLiveRequest;
+import demo.kafka.domain.ProcessedEvent;
+import demo.kafka.domain.ProcessedEventStatus;
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.exception.EventLeaseHeldException;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.DynamoDbRateLimiter.Capacity;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Idempotency store backed by the DynamoDB ProcessedEvent table.
+ *
+ * Duplicate lookups use either GetItem (projected to the key and status) or the original Query, with strongly or
+ * eventually consistent reads as configured.  The capacity consumed by every lookup and write is recorded, so the cost
+ * of the chosen consistency can be measured, and charged to the rate limiter's read or write bucket.
+ *
+ * Every record is written with an ExpiresAt time, the configured retention from when it was written, for the table's
+ * TTL to delete it.  TTL deletes some time after expiry, so lookups and conditions treat an expired record as absent.
+ *
+ * Records are also written with the partition and offset they were consumed from, which the TopicPartitionIndex global
+ * secondary index is keyed on, so the most recently processed events of a partition can be queried.
+ *
+ * Every call goes through the rate limiter, which holds calls back to the table's capacity when enabled, and rethrows
+ * throttling as a retryable DynamoDbThrottledException.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class DynamoDbIdempotencyStore implements IdempotencyStore {
+
+    private final AmazonDynamoDB amazonDynamoDB;
+
+    private final DynamoDBMapper dynamoDBMapper;
+
+    private final KafkaDemoProperties.DynamoDb config;
+
+    private final MeterRegistry meterRegistry;
+
+    private final DynamoDbRateLimiter rateLimiter;
+
+    @Override
+    public boolean isProcessed(final String eventId) {
+        if (config.getLookup() == DynamoDbLookup.QUERY) {
+            // The Id is the whole key, so the query matches at most one item and a single page holds it.
+            final QueryResult result = rateLimiter.call("Query", Capacity.READ, () -> amazonDynamoDB.query(new QueryRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)
+                    .withKeyConditionExpression(ProcessedEventTable.ID_KEY_CONDITION)
+                    .withExpressionAttributeNames(ProcessedEventTable.idQueryAttributeNames())
+                    .withExpressionAttributeValues(Collections.singletonMap(":id", new AttributeValue().withS(eventId)))
+                    .withConsistentRead(config.isConsistentReads())
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+            recordConsumedCapacity("Query", Capacity.READ, config.isConsistentReads(), result.getConsumedCapacity());
+            final long nowSeconds = ProcessedEventTable.nowSeconds();
+            return result.getItems().stream().anyMatch(item -> isProcessed(item, nowSeconds));
+        }
+        final GetItemResult result = rateLimiter.call("GetItem", Capacity.READ, () -> amazonDynamoDB.getItem(new GetItemRequest()
+                .withTableName(ProcessedEvent.TABLE_NAME)
+                .withKey(key(eventId))
+                .withProjectionExpression(ProcessedEventTable.LOOKUP_PROJECTION)
+                .withExpressionAttributeNames(ProcessedEventTable.lookupAttributeNames())
+                .withConsistentRead(config.isConsistentReads())
+                .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+        recordConsumedCapacity("GetItem", Capacity.READ, config.isConsistentReads(), result.getConsumedCapacity());
+        return result.getItem() != null && isProcessed(result.getItem(), ProcessedEventTable.nowSeconds());
+    }
+
+    /**
+     * The lookup is made with BatchGetItem in chunks of 100 keys, so a full poll costs a handful of round trips rather
+     * than one per event.
+     */
+    @Override
+    public Set<String> findProcessed(final Collection<String> eventIds) {
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        new LinkedHashSet<>(eventIds).forEach(eventId -> keys.add(key(eventId)));
+
+        final Set<String> processedEventIds = new HashSet<>();
+        for (int from = 0; from < keys.size(); from += ProcessedEventTable.BATCH_GET_ITEM_LIMIT) {
+            Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(ProcessedEvent.TABLE_NAME, new KeysAndAttributes()
+                    .withKeys(keys.subList(from, Math.min(from + ProcessedEventTable.BATCH_GET_ITEM_LIMIT, keys.size())))
+                    .withProjectionExpression(ProcessedEventTable.LOOKUP_PROJECTION)
+                    .withExpressionAttributeNames(ProcessedEventTable.lookupAttributeNames())
+                    .withConsistentRead(config.isConsistentReads()));
+            int attempt = 0;
+            while (!requestItems.isEmpty()) {
+                if (attempt > 0) {
+                    backOffUnprocessedKeys(attempt);
+                }
+                final Map<String, KeysAndAttributes> unreadItems = requestItems;
+                BatchGetItemResult result = rateLimiter.call("BatchGetItem", Capacity.READ, () -> amazonDynamoDB.batchGetItem(new BatchGetItemRequest()
+                        .withRequestItems(unreadItems)
+                        .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+                result.getConsumedCapacity().forEach(capacity -> recordConsumedCapacity("BatchGetItem", Capacity.READ, config.isConsistentReads(), capacity));
+                final long nowSeconds = ProcessedEventTable.nowSeconds();
+                result.getResponses().getOrDefault(ProcessedEvent.TABLE_NAME, Collections.emptyList()).stream()
+                        .filter(item -> isProcessed(item, nowSeconds))
+                        .forEach(item -> processedEventIds.add(item.get(ProcessedEvent.ID).getS()));
+                // Keys not read because of throughput limits are returned to be requested again.
+                requestItems = result.getUnprocessedKeys();
+                attempt++;
+            }
+        }
+        return processedEventIds;
+    }
+
+    /**
+     * The save is conditional on the Id not already existing (or having expired), so of two consumers racing to record
+     * the same event only one succeeds.
+     */
+    @Override
+    public void markProcessed(final String eventId, final TopicPartition topicPartition, final long offset) {
+        try {
+            final long nowSeconds = ProcessedEventTable.nowSeconds();
+            final Map<String, AttributeValue> item = new HashMap<>();
+            item.put(ProcessedEvent.ID, new AttributeValue().withS(eventId));
+            item.put(ProcessedEvent.EXPIRES_AT, new AttributeValue().withN(String.valueOf(ProcessedEventTable.expiresAt(nowSeconds, config.getRetention()))));
+            if (topicPartition != null) {
+                item.put(ProcessedEvent.TOPIC_PARTITION, new AttributeValue().withS(topicPartition.toString()));
+                item.put(ProcessedEvent.RECORD_OFFSET, new AttributeValue().withN(String.valueOf(offset)));
+            }
+            final PutItemResult result = rateLimiter.call("PutItem", Capacity.WRITE, () -> amazonDynamoDB.putItem(new PutItemRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)
+                    .withItem(item)
+                    .withConditionExpression(ProcessedEventTable.MARK_PROCESSED_CONDITION)
+                    .withExpressionAttributeNames(ProcessedEventTable.markProcessedAttributeNames())
+                    .withExpressionAttributeValues(Collections.singletonMap(":nowSeconds", new AttributeValue().withN(String.valueOf(nowSeconds))))
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+            recordConsumedCapacity("PutItem", Capacity.WRITE, true, result.getConsumedCapacity());
+        } catch (ConditionalCheckFailedException e) {
+            log.info("ConditionalCheckFailedException Error: " + e.getMessage());
+            throw new DuplicateEventException(eventId);
+        }
+    }
+
+    /**
+     * Claim with a single conditional PutItem.  Only when the condition fails is the current record read (consistently),
+     * to tell a completed event from one claimed by another owner.
+     */
+    @Override
+    public void claim(final String eventId, final String ownerId, final Duration lease, final TopicPartition topicPartition, final long offset) {
+        final long now = System.currentTimeMillis();
+        final long nowSeconds = now / 1000;
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put(ProcessedEvent.ID, new AttributeValue().withS(eventId));
+        item.put(ProcessedEvent.STATUS, new AttributeValue().withS(ProcessedEventStatus.IN_PROGRESS.name()));
+        item.put(ProcessedEvent.OWNER_ID, new AttributeValue().withS(ownerId));
+        item.put(ProcessedEvent.LEASE_EXPIRY, new AttributeValue().withN(String.valueOf(now + lease.toMillis())));
+        item.put(ProcessedEvent.EXPIRES_AT, new AttributeValue().withN(String.valueOf(ProcessedEventTable.expiresAt(nowSeconds, config.getRetention()))));
+        if (topicPartition != null) {
+            item.put(ProcessedEvent.TOPIC_PARTITION, new AttributeValue().withS(topicPartition.toString()));
+            item.put(ProcessedEvent.RECORD_OFFSET, new AttributeValue().withN(String.valueOf(offset)));
+        }
+
+        final Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":inProgress", new AttributeValue().withS(ProcessedEventStatus.IN_PROGRESS.name()));
+        values.put(":owner", new AttributeValue().withS(ownerId));
+        values.put(":now", new AttributeValue().withN(String.valueOf(now)));
+        values.put(":nowSeconds", new AttributeValue().withN(String.valueOf(nowSeconds)));
+        try {
+            final PutItemResult result = rateLimiter.call("PutItem", Capacity.WRITE, () -> amazonDynamoDB.putItem(new PutItemRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)
+                    .withItem(item)
+                    .withConditionExpression(ProcessedEventTable.CLAIM_CONDITION)
+                    .withExpressionAttributeNames(ProcessedEventTable.claimAttributeNames())
+                    .withExpressionAttributeValues(values)
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+            recordConsumedCapacity("PutItem", Capacity.WRITE, true, result.getConsumedCapacity());
+        } catch (ConditionalCheckFailedException e) {
+            final GetItemResult result = rateLimiter.call("GetItem", Capacity.READ, () -> amazonDynamoDB.getItem(new GetItemRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)
+                    .withKey(key(eventId))
+                    .withConsistentRead(true)
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+            recordConsumedCapacity("GetItem", Capacity.READ, true, result.getConsumedCapacity());
+            final ProcessedEvent current = result.getItem() == null ? null : dynamoDBMapper.marshallIntoObject(ProcessedEvent.class, result.getItem());
+            if (current == null || current.isExpired(nowSeconds)) {
+                // Released (or expired) between the claim and the read, so retry straight away.
+                throw new EventLeaseHeldException(eventId, null, Instant.ofEpochMilli(now));
+            }
+            if (current.isCompleted()) {
+                log.info("Claim failed as event already completed: " + eventId);
+                throw new DuplicateEventException(eventId);
+            }
+            throw new EventLeaseHeldException(eventId, current.getOwnerId(), Instant.ofEpochMilli(current.getLeaseExpiry()));
+        }
+    }
+
+    @Override
+    public boolean complete(final String eventId, final String ownerId) {
+        final Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":inProgress", new AttributeValue().withS(ProcessedEventStatus.IN_PROGRESS.name()));
+        values.put(":completed", new AttributeValue().withS(ProcessedEventStatus.COMPLETED.name()));
+        values.put(":owner", new AttributeValue().withS(ownerId));
+        // The retention runs from completion.
+        values.put(":expiresAt", new AttributeValue().withN(String.valueOf(ProcessedEventTable.expiresAt(ProcessedEventTable.nowSeconds(), config.getRetention()))));
+        try {
+            final UpdateItemResult result = rateLimiter.call("UpdateItem", Capacity.WRITE, () -> amazonDynamoDB.updateItem(new UpdateItemRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)
+                    .withKey(key(eventId))
+                    .withUpdateExpression(ProcessedEventTable.COMPLETE_UPDATE)
+                    .withConditionExpression(ProcessedEventTable.OWNED_CONDITION)
+                    .withExpressionAttributeNames(ProcessedEventTable.completeAttributeNames())
+                    .withExpressionAttributeValues(values)
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+            recordConsumedCapacity("UpdateItem", Capacity.WRITE, true, result.getConsumedCapacity());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void release(final String eventId, final String ownerId) {
+        final Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":inProgress", new AttributeValue().withS(ProcessedEventStatus.IN_PROGRESS.name()));
+        values.put(":owner", new AttributeValue().withS(ownerId));
+        try {
+            final DeleteItemResult result = rateLimiter.call("DeleteItem", Capacity.WRITE, () -> amazonDynamoDB.deleteItem(new DeleteItemRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)
+                    .withKey(key(eventId))
+                    .withConditionExpression(ProcessedEventTable.OWNED_CONDITION)
+                    .withExpressionAttributeNames(ProcessedEventTable.releaseAttributeNames())
+                    .withExpressionAttributeValues(values)
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+            recordConsumedCapacity("DeleteItem", Capacity.WRITE, true, result.getConsumedCapacity());
+        } catch (ConditionalCheckFailedException e) {
+            log.debug("Claim on event Id: {} no longer held by: {}", eventId, ownerId);
+        }
+    }
+
+    /**
+     * Query the TopicPartitionIndex newest offset first, a page at a time, until the limit of records has been read.  The
+     * index only supports eventually consistent reads, so the very latest records may be missed.
+     */
+    @Override
+    public Set<String> findRecentlyProcessed(final TopicPartition topicPartition, final int limit) {
+        final Set<String> processedEventIds = new HashSet<>();
+        int read = 0;
+        Map<String, AttributeValue> startKey = null;
+        do {
+            final Map<String, AttributeValue> exclusiveStartKey = startKey;
+            final int pageLimit = limit - read;
+            final QueryResult result = rateLimiter.call("Query", Capacity.READ, () -> amazonDynamoDB.query(new QueryRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)
+                    .withIndexName(ProcessedEvent.TOPIC_PARTITION_INDEX)
+                    .withKeyConditionExpression(ProcessedEventTable.TOPIC_PARTITION_KEY_CONDITION)
+                    .withProjectionExpression(ProcessedEventTable.LOOKUP_PROJECTION)
+                    .withExpressionAttributeNames(ProcessedEventTable.topicPartitionQueryAttributeNames())
+                    .withExpressionAttributeValues(Collections.singletonMap(":topicPartition", new AttributeValue().withS(topicPartition.toString())))
+                    .withScanIndexForward(false)
+                    .withLimit(pageLimit)
+                    .withExclusiveStartKey(exclusiveStartKey)
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)));
+            recordConsumedCapacity("Query", Capacity.READ, false, result.getConsumedCapacity());
+            final long nowSeconds = ProcessedEventTable.nowSeconds();
+            result.getItems().stream()
+                    .filter(item -> isProcessed(item, nowSeconds))
+                    .forEach(item -> processedEventIds.add(item.get(ProcessedEvent.ID).getS()));
+            read += result.getCount();
+            startKey = result.getLastEvaluatedKey();
+        } while (startKey != null && read < limit);
+        return processedEventIds;
+    }
+
+    /**
+     * Enable TTL on the ExpiresAt attribute, unless already enabled.  Best effort, as the table may not exist yet or the
+     * credentials may not allow it, in which case TTL has to be enabled by whoever manages the table.
+     */
+    public void enableTimeToLive() {
+        try {
+            final TimeToLiveDescription description = amazonDynamoDB.describeTimeToLive(new DescribeTimeToLiveRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)).getTimeToLiveDescription();
+            if (ProcessedEventTable.isTimeToLiveEnabled(description.getTimeToLiveStatus(), description.getAttributeName())) {
+                return;
+            }
+            amazonDynamoDB.updateTimeToLive(new UpdateTimeToLiveRequest()
+                    .withTableName(ProcessedEvent.TABLE_NAME)
+                    .withTimeToLiveSpecification(new TimeToLiveSpecification()
+                            .withAttributeName(ProcessedEvent.EXPIRES_AT)
+                            .withEnabled(true)));
+            ProcessedEventTable.timeToLiveEnabled();
+        } catch (SdkClientException e) {
+            ProcessedEventTable.timeToLiveUnverified(e);
+        }
+    }
+
+    /**
+     * Add the TopicPartitionIndex to the ProcessedEvent create table request.  Only the key, status and expiry are
+     * projected, as that is all the warm-up query reads.
+     */
+    public static CreateTableRequest withTopicPartitionIndex(final CreateTableRequest request, final ProvisionedThroughput throughput) {
+        return request
+                .withAttributeDefinitions(
+                        new AttributeDefinition(ProcessedEvent.TOPIC_PARTITION, ScalarAttributeType.S),
+                        new AttributeDefinition(ProcessedEvent.RECORD_OFFSET, ScalarAttributeType.N))
+                .withGlobalSecondaryIndexes(new GlobalSecondaryIndex()
+                        .withIndexName(ProcessedEvent.TOPIC_PARTITION_INDEX)
+                        .withKeySchema(
+                                new KeySchemaElement(ProcessedEvent.TOPIC_PARTITION, KeyType.HASH),
+                                new KeySchemaElement(ProcessedEvent.RECORD_OFFSET, KeyType.RANGE))
+                        .withProjection(new Projection()
+                                .withProjectionType(ProjectionType.INCLUDE)
+                                .withNonKeyAttributes(ProcessedEvent.STATUS, ProcessedEvent.EXPIRES_AT))
+                        .withProvisionedThroughput(throughput));
+    }
+
+    private void recordConsumedCapacity(final String operation, final Capacity capacity, final boolean consistent, final ConsumedCapacity consumedCapacity) {
+        if (consumedCapacity != null && consumedCapacity.getCapacityUnits() != null) {
+            ProcessedEventTable.recordConsumedCapacity(meterRegistry, operation, capacity, consistent, consumedCapacity.getCapacityUnits());
+            rateLimiter.consumed(capacity, consumedCapacity.getCapacityUnits());
+        }
+    }
+
+    private static void backOffUnprocessedKeys(final int attempt) {
+        try {
+            Thread.sleep(ProcessedEventTable.unprocessedKeysBackOffMs(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted retrying unprocessed keys", e);
+        }
+    }
+
+    private static boolean isProcessed(final Map<String, AttributeValue> item, final long nowSeconds) {
+        final AttributeValue status = item.get(ProcessedEvent.STATUS);
+        final AttributeValue expiresAt = item.get(ProcessedEvent.EXPIRES_AT);
+        return ProcessedEventTable.isProcessed(status == null ? null : status.getS(), expiresAt == null ? null : expiresAt.getN(), nowSeconds);
+    }
+
+    private static Map<String, AttributeValue> key(final String eventId) {
+        return Collections.singletonMap(ProcessedEvent.ID, new AttributeValue().withS(eventId));
+    }
+}
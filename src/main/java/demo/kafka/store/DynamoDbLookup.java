@@ -0,0 +1,8 @@
+package demo.kafka.store;
+
+public enum DynamoDbLookup {
+    // Key lookup with GetItem/BatchGetItem, projecting only the attributes the duplicate check needs.
+    GET_ITEM,
+    // The original Query on the hash key, materialising the matching items.
+    QUERY
+}
@@ -0,0 +1,252 @@
+package demo.kafka.store;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.RequestLimitExceededException;
+import demo.kafka.exception.DynamoDbThrottledException;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Client side limit on the rate of the DynamoDB stores' calls, adapting to the table's throttling.  The DYNAMODB store's
+ * calls wait for the limiter on the calling thread, and the DYNAMODB_ASYNC store's requests are delayed without blocking.
+ *
+ * Reads and writes are limited separately, as the table's read and write capacity are separate limits.  Each has a
+ * token bucket holding up to a second of its current rate, in read or write capacity units.  Each call takes one unit
+ * up front, and the rest of the capacity it consumed once it returns, so a bucket in debt holds back the calls after it.
+ * A call that would wait longer than the maximum wait fails as throttled instead, leaving the consumer free to back off.
+ *
+ * A rate is cut by the decrease factor when DynamoDB throttles a call of its kind, at most once a second so that a burst
+ * of throttled calls in flight together counts once, and otherwise grows steadily up to its maximum.
+ *
+ * A throttled call, whether or not the limiter is enabled, is rethrown as a retryable DynamoDbThrottledException.
+ */
+@Slf4j
+public class DynamoDbRateLimiter {
+
+    public enum Capacity {
+        READ,
+        WRITE
+    }
+
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final KafkaDemoProperties.DynamoDb config;
+    private final LongSupplier nanoClock;
+    private final MeterRegistry meterRegistry;
+    private final Timer waitTimer;
+    private final Map<Capacity, Bucket> buckets;
+
+    public DynamoDbRateLimiter(final KafkaDemoProperties.DynamoDb config, final MeterRegistry meterRegistry) {
+        this(config, meterRegistry, System::nanoTime);
+    }
+
+    DynamoDbRateLimiter(final KafkaDemoProperties.DynamoDb config, final MeterRegistry meterRegistry, final LongSupplier nanoClock) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+        final long now = nanoClock.getAsLong();
+        this.buckets = Map.of(
+                Capacity.READ, new Bucket(config.getRateLimitReadInitial(), config.getRateLimitReadMin(), config.getRateLimitReadMax(), now),
+                Capacity.WRITE, new Bucket(config.getRateLimitWriteInitial(), config.getRateLimitWriteMin(), config.getRateLimitWriteMax(), now));
+        this.waitTimer = Timer.builder("kafkademo.dynamodb.rate.limit.wait")
+                .description("Time DynamoDB calls waited for the client side rate limiter")
+                .register(meterRegistry);
+        if (config.isRateLimitEnabled()) {
+            for (final Capacity capacity : Capacity.values()) {
+                Gauge.builder("kafkademo.dynamodb.rate.limit", this, limiter -> limiter.getRate(capacity))
+                        .description("The client side limit on DynamoDB capacity units per second")
+                        .tag("capacity", capacity.name().toLowerCase())
+                        .register(meterRegistry);
+            }
+        }
+    }
+
+    /**
+     * Make the call once the limiter allows, translating throttling by DynamoDB into a DynamoDbThrottledException.
+     */
+    public <T> T call(final String operation, final Capacity capacity, final Supplier<T> call) {
+        if (config.isRateLimitEnabled()) {
+            acquire(operation, capacity);
+        }
+        try {
+            return call.get();
+        } catch (AmazonServiceException e) {
+            if (!isThrottling(e)) {
+                throw e;
+            }
+            throttledByService(operation, capacity);
+            throw new DynamoDbThrottledException("DynamoDB throttled " + operation + ": " + e.getErrorCode(), e);
+        }
+    }
+
+    public void run(final String operation, final Capacity capacity, final Runnable call) {
+        call(operation, capacity, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Complete once the limiter allows the request, without blocking the caller, or fail with a DynamoDbThrottledException
+     * if that would be longer than the maximum wait.
+     */
+    CompletableFuture<Void> acquireAsync(final String operation, final Capacity capacity) {
+        if (!config.isRateLimitEnabled()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final long waitNanos;
+        try {
+            waitNanos = waitFor(operation, capacity);
+        } catch (DynamoDbThrottledException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (waitNanos == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Count a request DynamoDB throttled, and cut the rate, for a store that translates its own client's exceptions.
+     */
+    void throttledByService(final String operation, final Capacity capacity) {
+        throttled(operation, "service");
+        onThrottle(capacity);
+    }
+
+    /**
+     * Charge the capacity a call consumed beyond the unit taken up front.
+     */
+    public synchronized void consumed(final Capacity capacity, final double capacityUnits) {
+        if (config.isRateLimitEnabled() && capacityUnits > 1) {
+            buckets.get(capacity).tokens -= capacityUnits - 1;
+        }
+    }
+
+    public synchronized double getRate(final Capacity capacity) {
+        return buckets.get(capacity).rate;
+    }
+
+    /**
+     * Return true while the limiter holds the rate below its maximum, as it does for a while after any throttling.
+     */
+    public synchronized boolean isHoldingBack(final Capacity capacity) {
+        if (!config.isRateLimitEnabled()) {
+            return false;
+        }
+        final Bucket bucket = buckets.get(capacity);
+        refill(bucket, nanoClock.getAsLong());
+        return bucket.rate < bucket.max;
+    }
+
+    synchronized void onThrottle(final Capacity capacity) {
+        final long now = nanoClock.getAsLong();
+        final Bucket bucket = buckets.get(capacity);
+        refill(bucket, now);
+        if (config.isRateLimitEnabled() && now - bucket.lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+            bucket.rate = Math.max(bucket.min, bucket.rate * config.getRateLimitDecreaseFactor());
+            bucket.tokens = Math.min(bucket.tokens, bucket.rate);
+            bucket.lastDecreaseNanos = now;
+            log.warn("DynamoDB throttled, client side {} rate limit reduced to {} capacity units per second", capacity.name().toLowerCase(),
+                    Math.round(bucket.rate));
+        }
+    }
+
+    private void acquire(final String operation, final Capacity capacity) {
+        final long waitNanos = waitFor(operation, capacity);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DynamoDbThrottledException("Interrupted waiting for the client side rate limiter", e);
+            }
+        }
+    }
+
+    /**
+     * Take a unit, returning how long to wait for it, or throw if that is longer than the maximum wait.
+     */
+    private long waitFor(final String operation, final Capacity capacity) {
+        final long waitNanos = reserve(capacity);
+        if (waitNanos < 0) {
+            throttled(operation, "limiter");
+            throw new DynamoDbThrottledException("Client side " + capacity.name().toLowerCase() + " rate limit of " + Math.round(getRate(capacity))
+                    + " capacity units per second reached for " + operation);
+        }
+        waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+        return waitNanos;
+    }
+
+    /**
+     * Take a unit, returning how long to wait for it, or -1 without taking it if that is longer than the maximum wait.
+     */
+    synchronized long reserve(final Capacity capacity) {
+        final Bucket bucket = buckets.get(capacity);
+        refill(bucket, nanoClock.getAsLong());
+        final long waitNanos = bucket.tokens >= 1 ? 0 : (long) Math.ceil((1 - bucket.tokens) / bucket.rate * TimeUnit.SECONDS.toNanos(1));
+        if (waitNanos > config.getRateLimitMaxWait().toNanos()) {
+            return -1;
+        }
+        bucket.tokens -= 1;
+        return waitNanos;
+    }
+
+    private void refill(final Bucket bucket, final long now) {
+        final double elapsedSeconds = (double) (now - bucket.lastRefillNanos) / TimeUnit.SECONDS.toNanos(1);
+        if (elapsedSeconds <= 0) {
+            return;
+        }
+        if (now - bucket.lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+            bucket.rate = Math.min(bucket.max, bucket.rate + config.getRateLimitIncreasePerSecond() * elapsedSeconds);
+        }
+        bucket.tokens = Math.min(bucket.rate, bucket.tokens + bucket.rate * elapsedSeconds);
+        bucket.lastRefillNanos = now;
+    }
+
+    private void throttled(final String operation, final String source) {
+        Counter.builder("kafkademo.dynamodb.throttled")
+                .description("DynamoDB calls throttled, by DynamoDB or by the client side rate limiter")
+                .tag("operation", operation)
+                .tag("source", source)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static boolean isThrottling(final AmazonServiceException e) {
+        return e instanceof ProvisionedThroughputExceededException || e instanceof RequestLimitExceededException || RetryUtils.isThrottlingException(e);
+    }
+
+    /**
+     * Guarded by the limiter.
+     */
+    private static class Bucket {
+        private final double min;
+        private final double max;
+        private double rate;
+        private double tokens;
+        private long lastRefillNanos;
+        private long lastDecreaseNanos;
+
+        private Bucket(final double initial, final double min, final double max, final long now) {
+            this.min = min;
+            this.max = max;
+            this.rate = initial;
+            this.tokens = initial;
+            this.lastRefillNanos = now;
+            this.lastDecreaseNanos = now - DECREASE_INTERVAL_NANOS;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package demo.kafka.store;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.exception.EventLeaseHeldException;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * The backing store recording which events have been processed, used to deduplicate consumed events.
+ *
+ * The async variants default to running the synchronous call on the calling thread.  Backends with a non-blocking
+ * client override them.
+ */
+public interface IdempotencyStore {
+
+    /**
+     * Return true if the event has been recorded as processed.
+     */
+    boolean isProcessed(String eventId);
+
+    /**
+     * Return those of the given event Ids that have been recorded as processed.
+     */
+    Set<String> findProcessed(Collection<String> eventIds);
+
+    /**
+     * Record the event as processed, along with the partition and offset it was consumed from.
+     *
+     * @throws DuplicateEventException if the event has already been recorded, such as by another consumer instance.
+     */
+    void markProcessed(String eventId, TopicPartition topicPartition, long offset);
+
+    /**
+     * Record the event as processed, with no partition and offset, so it is not found by findRecentlyProcessed.
+     *
+     * @throws DuplicateEventException if the event has already been recorded, such as by another consumer instance.
+     */
+    default void markProcessed(String eventId) {
+        markProcessed(eventId, null, -1L);
+    }
+
+    /**
+     * Claim the event for processing by the given owner until the lease expires, in a single conditional write.
+     *
+     * The claim succeeds if the event is unclaimed, if the previous owner's lease has expired, or if the owner already
+     * holds it (such as on a retry).
+     *
+     * @throws DuplicateEventException if the event has already been completed.
+     * @throws EventLeaseHeldException if another owner holds an unexpired claim on the event.
+     */
+    void claim(String eventId, String ownerId, Duration lease, TopicPartition topicPartition, long offset);
+
+    default void claim(String eventId, String ownerId, Duration lease) {
+        claim(eventId, ownerId, lease, null, -1L);
+    }
+
+    /**
+     * Mark the owner's claim on the event as completed.  Returns false if the owner no longer held the claim, as its lease
+     * expired and the event was claimed by another owner.
+     */
+    boolean complete(String eventId, String ownerId);
+
+    /**
+     * Give up the owner's claim on the event, such as when its processing failed, so it can be claimed again at once.
+     */
+    void release(String eventId, String ownerId);
+
+    /**
+     * Return the event Ids of up to the given number of the events most recently recorded as processed from the
+     * partition, by offset.
+     */
+    Set<String> findRecentlyProcessed(TopicPartition topicPartition, int limit);
+
+    /**
+     * Record each of the events as processed, returning those that had already been recorded.
+     */
+    default Set<String> markAllProcessed(Collection<String> eventIds) {
+        final Set<String> duplicates = new HashSet<>();
+        for (final String eventId : eventIds) {
+            try {
+                markProcessed(eventId);
+            } catch (DuplicateEventException e) {
+                duplicates.add(eventId);
+            }
+        }
+        return duplicates;
+    }
+
+    default CompletableFuture<Boolean> isProcessedAsync(String eventId) {
+        try {
+            return CompletableFuture.completedFuture(isProcessed(eventId));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    default CompletableFuture<Void> markProcessedAsync(String eventId) {
+        return markProcessedAsync(eventId, null, -1L);
+    }
+
+    /**
+     * As markProcessed, completing exceptionally with a DuplicateEventException if the event has already been recorded.
+     */
+    default CompletableFuture<Void> markProcessedAsync(String eventId, TopicPartition topicPartition, long offset) {
+        try {
+            markProcessed(eventId, topicPartition, offset);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    default CompletableFuture<Boolean> completeAsync(String eventId, String ownerId) {
+        try {
+            return CompletableFuture.completedFuture(complete(eventId, ownerId));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
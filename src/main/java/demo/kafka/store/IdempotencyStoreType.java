@@ -0,0 +1,7 @@
+package demo.kafka.store;
+
+public enum IdempotencyStoreType {
+    DYNAMODB,
+    DYNAMODB_ASYNC,
+    IN_MEMORY
+}
@@ -0,0 +1,112 @@
+package demo.kafka.store;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import demo.kafka.domain.ProcessedEvent;
+import demo.kafka.domain.ProcessedEventStatus;
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.exception.EventLeaseHeldException;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Idempotency store held in memory, for tests and benchmarks where no DynamoDB is available.
+ *
+ * Lookups never lock, and recording an event is a single atomic insert, so the insert that loses a race is reported
+ * as a duplicate just as the DynamoDB conditional save would be.  Records are not shared between instances and do not
+ * survive a restart.
+ */
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+
+    private final ConcurrentMap<String, ProcessedEvent> processedEvents = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isProcessed(final String eventId) {
+        final ProcessedEvent processedEvent = processedEvents.get(eventId);
+        return processedEvent != null && processedEvent.isCompleted();
+    }
+
+    @Override
+    public Set<String> findProcessed(final Collection<String> eventIds) {
+        return eventIds.stream().filter(this::isProcessed).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void markProcessed(final String eventId, final TopicPartition topicPartition, final long offset) {
+        if (processedEvents.putIfAbsent(eventId, processedEvent(eventId, topicPartition, offset)) != null) {
+            throw new DuplicateEventException(eventId);
+        }
+    }
+
+    @Override
+    public void claim(final String eventId, final String ownerId, final Duration lease, final TopicPartition topicPartition, final long offset) {
+        final long now = System.currentTimeMillis();
+        final ProcessedEvent claim = processedEvent(eventId, topicPartition, offset);
+        claim.setStatus(ProcessedEventStatus.IN_PROGRESS);
+        claim.setOwnerId(ownerId);
+        claim.setLeaseExpiry(now + lease.toMillis());
+
+        final ProcessedEvent current = processedEvents.compute(eventId, (id, existing) ->
+                existing == null || (!existing.isCompleted() && (existing.getLeaseExpiry() < now || existing.getOwnerId().equals(ownerId)))
+                        ? claim : existing);
+        if (current != claim) {
+            if (current.isCompleted()) {
+                throw new DuplicateEventException(eventId);
+            }
+            throw new EventLeaseHeldException(eventId, current.getOwnerId(), Instant.ofEpochMilli(current.getLeaseExpiry()));
+        }
+    }
+
+    @Override
+    public boolean complete(final String eventId, final String ownerId) {
+        final ProcessedEvent completed = new ProcessedEvent(eventId);
+        completed.setStatus(ProcessedEventStatus.COMPLETED);
+        completed.setOwnerId(ownerId);
+        return processedEvents.computeIfPresent(eventId, (id, existing) -> {
+            if (!isClaimedBy(existing, ownerId)) {
+                return existing;
+            }
+            completed.setTopicPartition(existing.getTopicPartition());
+            completed.setRecordOffset(existing.getRecordOffset());
+            return completed;
+        }) == completed;
+    }
+
+    @Override
+    public void release(final String eventId, final String ownerId) {
+        processedEvents.computeIfPresent(eventId, (id, existing) -> isClaimedBy(existing, ownerId) ? null : existing);
+    }
+
+    /**
+     * A scan of every record, as nothing here is large enough to need an index.
+     */
+    @Override
+    public Set<String> findRecentlyProcessed(final TopicPartition topicPartition, final int limit) {
+        final String partition = topicPartition.toString();
+        return processedEvents.values().stream()
+                .filter(processedEvent -> processedEvent.isCompleted() && partition.equals(processedEvent.getTopicPartition()))
+                .sorted(Comparator.comparing(ProcessedEvent::getRecordOffset).reversed())
+                .limit(limit)
+                .map(ProcessedEvent::getId)
+                .collect(Collectors.toSet());
+    }
+
+    private static ProcessedEvent processedEvent(final String eventId, final TopicPartition topicPartition, final long offset) {
+        final ProcessedEvent processedEvent = new ProcessedEvent(eventId);
+        if (topicPartition != null) {
+            processedEvent.setTopicPartition(topicPartition.toString());
+            processedEvent.setRecordOffset(offset);
+        }
+        return processedEvent;
+    }
+
+    private static boolean isClaimedBy(final ProcessedEvent processedEvent, final String ownerId) {
+        return !processedEvent.isCompleted() && processedEvent.getOwnerId().equals(ownerId);
+    }
+}
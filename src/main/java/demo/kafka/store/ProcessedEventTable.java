@@ -0,0 +1,176 @@
+package demo.kafka.store;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import demo.kafka.domain.ProcessedEvent;
+import demo.kafka.domain.ProcessedEventStatus;
+import demo.kafka.store.DynamoDbRateLimiter.Capacity;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The ProcessedEvent table's expressions, attribute placeholders and expiry rules, shared by DynamoDbIdempotencyStore
+ * and DynamoDbAsyncIdempotencyStore, so that the two stores write the same records under the same conditions and can
+ * share a table.
+ *
+ * Status is a DynamoDB reserved word, so all attributes in the expressions are referenced by name placeholders.  Only
+ * those used by an expression may be passed with it, as DynamoDB rejects unused placeholders.
+ */
+@Slf4j
+final class ProcessedEventTable {
+
+    // The maximum number of keys DynamoDB accepts in a single BatchGetItem request.
+    static final int BATCH_GET_ITEM_LIMIT = 100;
+
+    // The duplicate check only needs to know that the item exists, whether it is still in progress and if it has expired.
+    static final String LOOKUP_PROJECTION = "#id, #status, #expiresAt";
+
+    // The Query lookup, by the Id alone, as it is the whole key.
+    static final String ID_KEY_CONDITION = "#id = :id";
+
+    // The warm-up query of the TopicPartitionIndex.
+    static final String TOPIC_PARTITION_KEY_CONDITION = "#topicPartition = :topicPartition";
+
+    // Record the event unless it is already recorded and has not expired.
+    static final String MARK_PROCESSED_CONDITION = "attribute_not_exists(#id) OR #expiresAt <= :nowSeconds";
+
+    // Claim the event as for recording it, or take over an in progress claim whose lease has expired or is already ours.
+    static final String CLAIM_CONDITION = MARK_PROCESSED_CONDITION + " OR (#status = :inProgress AND (#leaseExpiry < :now OR #ownerId = :owner))";
+
+    // The retention runs from completion.
+    static final String COMPLETE_UPDATE = "SET #status = :completed, #expiresAt = :expiresAt REMOVE #leaseExpiry";
+
+    // Complete or release the claim only while the owner still holds it.
+    static final String OWNED_CONDITION = "#status = :inProgress AND #ownerId = :owner";
+
+    private static final Map<String, String> ATTRIBUTE_NAMES = Map.of(
+            "#id", ProcessedEvent.ID,
+            "#status", ProcessedEvent.STATUS,
+            "#ownerId", ProcessedEvent.OWNER_ID,
+            "#leaseExpiry", ProcessedEvent.LEASE_EXPIRY,
+            "#expiresAt", ProcessedEvent.EXPIRES_AT,
+            "#topicPartition", ProcessedEvent.TOPIC_PARTITION);
+
+    private static final long UNPROCESSED_KEYS_BACKOFF_MS = 10;
+    private static final long UNPROCESSED_KEYS_MAX_BACKOFF_MS = 1000;
+
+    private ProcessedEventTable() {
+    }
+
+    static Map<String, String> lookupAttributeNames() {
+        return attributeNames("#id", "#status", "#expiresAt");
+    }
+
+    static Map<String, String> idQueryAttributeNames() {
+        return attributeNames("#id");
+    }
+
+    static Map<String, String> topicPartitionQueryAttributeNames() {
+        return attributeNames("#topicPartition", "#id", "#status", "#expiresAt");
+    }
+
+    static Map<String, String> markProcessedAttributeNames() {
+        return attributeNames("#id", "#expiresAt");
+    }
+
+    static Map<String, String> claimAttributeNames() {
+        return attributeNames("#id", "#expiresAt", "#status", "#leaseExpiry", "#ownerId");
+    }
+
+    static Map<String, String> completeAttributeNames() {
+        return attributeNames("#status", "#expiresAt", "#leaseExpiry", "#ownerId");
+    }
+
+    static Map<String, String> releaseAttributeNames() {
+        return attributeNames("#status", "#ownerId");
+    }
+
+    static long nowSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    static long expiresAt(final long nowSeconds, final Duration retention) {
+        return nowSeconds + retention.getSeconds();
+    }
+
+    /**
+     * TTL deletes some time after expiry, so an item past its ExpiresAt time is treated as absent.
+     */
+    static boolean isExpired(final String expiresAt, final long nowSeconds) {
+        return expiresAt != null && Long.parseLong(expiresAt) <= nowSeconds;
+    }
+
+    static boolean isInProgress(final String status) {
+        return ProcessedEventStatus.IN_PROGRESS.name().equals(status);
+    }
+
+    /**
+     * An item recorded by markProcessed has no status, and one recorded by the claim protocol counts once completed.
+     */
+    static boolean isProcessed(final String status, final String expiresAt, final long nowSeconds) {
+        return !isInProgress(status) && !isExpired(expiresAt, nowSeconds);
+    }
+
+    /**
+     * The back off before requesting unprocessed keys again, growing with each retry from the first.
+     */
+    static long unprocessedKeysBackOffMs(final int retry) {
+        return Math.min(UNPROCESSED_KEYS_MAX_BACKOFF_MS, UNPROCESSED_KEYS_BACKOFF_MS << retry);
+    }
+
+    /**
+     * Record the capacity a call consumed, tagged alike by both stores, so the cost of the chosen consistency can be
+     * measured whichever store is used.
+     */
+    static void recordConsumedCapacity(final MeterRegistry meterRegistry, final String operation, final Capacity capacity, final boolean consistent,
+                                       final double capacityUnits) {
+        DistributionSummary.builder("dynamodb.consumed.capacity")
+                .description("Read or write capacity units consumed by the store's calls")
+                .baseUnit("capacity.units")
+                .tag("table", ProcessedEvent.TABLE_NAME)
+                .tag("operation", operation)
+                .tag("capacity", capacity.name().toLowerCase())
+                .tag("consistent", String.valueOf(consistent))
+                .register(meterRegistry)
+                .record(capacityUnits);
+    }
+
+    /**
+     * Return true if TTL is already enabled (or being enabled), warning if it is on another attribute than ExpiresAt.
+     */
+    static boolean isTimeToLiveEnabled(final String status, final String attributeName) {
+        if (!"ENABLED".equals(status) && !"ENABLING".equals(status)) {
+            return false;
+        }
+        if (ProcessedEvent.EXPIRES_AT.equals(attributeName)) {
+            log.info("TTL on table " + ProcessedEvent.TABLE_NAME + " is " + status);
+        } else {
+            log.warn("TTL on table " + ProcessedEvent.TABLE_NAME + " is on attribute " + attributeName
+                    + " rather than " + ProcessedEvent.EXPIRES_AT + ", so processed events will not be deleted");
+        }
+        return true;
+    }
+
+    static void timeToLiveEnabled() {
+        log.info("Enabled TTL on table " + ProcessedEvent.TABLE_NAME + " attribute " + ProcessedEvent.EXPIRES_AT);
+    }
+
+    /**
+     * Enabling TTL is best effort, as the table may not exist yet or the credentials may not allow it, in which case TTL
+     * has to be enabled by whoever manages the table.
+     */
+    static void timeToLiveUnverified(final Throwable cause) {
+        log.warn("Unable to verify TTL on table " + ProcessedEvent.TABLE_NAME + ": " + cause.getMessage());
+    }
+
+    private static Map<String, String> attributeNames(final String... placeholders) {
+        final Map<String, String> names = new HashMap<>();
+        for (final String placeholder : placeholders) {
+            names.put(placeholder, ATTRIBUTE_NAMES.get(placeholder));
+        }
+        return names;
+    }
+}
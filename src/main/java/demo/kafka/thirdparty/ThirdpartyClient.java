@@ -0,0 +1,115 @@
+package demo.kafka.thirdparty;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import demo.kafka.cache.BoundedCache;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Looks up a key on the third party service.
+ *
+ * The lookup is an idempotent GET, so with single flight the concurrent lookups of the same key share the one call in
+ * flight, each given its response or its exception.  With the response cache, a successful response is kept for the
+ * time to live and returned without a call.  The response is cached before the call in flight is removed, so a lookup
+ * arriving as it completes finds one or the other.
+ */
+@Slf4j
+@Component
+public class ThirdpartyClient {
+
+    private final RestTemplate thirdpartyRestTemplate;
+
+    private final KafkaDemoProperties properties;
+
+    private final ConcurrentMap<String, CompletableFuture<ResponseEntity<String>>> inFlight = new ConcurrentHashMap<>();
+
+    private final BoundedCache<String, ResponseEntity<String>> responseCache;
+
+    private final Counter coalesced;
+
+    public ThirdpartyClient(final RestTemplate thirdpartyRestTemplate, final KafkaDemoProperties properties, final MeterRegistry meterRegistry) {
+        this.thirdpartyRestTemplate = thirdpartyRestTemplate;
+        this.properties = properties;
+        final KafkaDemoProperties.Thirdparty config = properties.getThirdparty();
+        this.responseCache = config.isResponseCacheEnabled()
+                ? new BoundedCache<>(config.getResponseCacheMaxEntries(), config.getResponseCacheTtl(), config.getResponseCacheEvictionPolicy())
+                : null;
+        this.coalesced = Counter.builder("kafkademo.thirdparty.coalesced")
+                .description("Third party lookups that shared the call in flight for their key")
+                .register(meterRegistry);
+        if (responseCache != null) {
+            FunctionCounter.builder("kafkademo.thirdparty.response.cache.hits", responseCache, BoundedCache::getHits).register(meterRegistry);
+            FunctionCounter.builder("kafkademo.thirdparty.response.cache.misses", responseCache, BoundedCache::getMisses).register(meterRegistry);
+            FunctionCounter.builder("kafkademo.thirdparty.response.cache.evictions", responseCache, cache -> cache.getEvictions() + cache.getExpirations()).register(meterRegistry);
+            Gauge.builder("kafkademo.thirdparty.response.cache.size", responseCache, BoundedCache::size).register(meterRegistry);
+            Gauge.builder("kafkademo.thirdparty.response.cache.hit.ratio", responseCache, ThirdpartyClient::hitRatio).register(meterRegistry);
+        }
+    }
+
+    public ResponseEntity<String> get(final String key) {
+        if (responseCache != null) {
+            final ResponseEntity<String> cached = responseCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (!properties.getThirdparty().isSingleFlight()) {
+            return call(key);
+        }
+        final CompletableFuture<ResponseEntity<String>> call = new CompletableFuture<>();
+        final CompletableFuture<ResponseEntity<String>> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            coalesced.increment();
+            log.debug("Sharing the third party call in flight for key: {}", key);
+            return join(existing);
+        }
+        try {
+            final ResponseEntity<String> response = call(key);
+            call.complete(response);
+            return response;
+        } catch (Throwable e) {
+            // Any failure, Errors included, is shared, as a call left incomplete would hold its waiters forever.
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    private ResponseEntity<String> call(final String key) {
+        final ResponseEntity<String> response = thirdpartyRestTemplate.getForEntity(properties.getThirdpartyEndpoint() + "/" + key, String.class);
+        if (responseCache != null && response.getStatusCode() == HttpStatus.OK) {
+            responseCache.put(key, response);
+        }
+        return response;
+    }
+
+    private static ResponseEntity<String> join(final CompletableFuture<ResponseEntity<String>> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            // Rethrow the exception of the shared call, so it is handled as if this lookup had made the call.
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private static double hitRatio(final BoundedCache<?, ?> cache) {
+        final long lookups = cache.getHits() + cache.getMisses();
+        return lookups == 0 ? Double.NaN : (double) cache.getHits() / lookups;
+    }
+}
@@ -0,0 +1,193 @@
+package demo.kafka.watermark;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConditionalOperator;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import demo.kafka.domain.PartitionWatermark;
+import demo.kafka.properties.KafkaDemoProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.support.KafkaUtils;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per partition watermarks of the highest offset up to which every record has been completed, so that a record
+ * redelivered after a crash or rebalance, at or below the watermark, is skipped without looking up its event Id.
+ *
+ * A partition's records are completed in offset order, so the watermark is simply the highest offset completed.  It is
+ * held in memory and written to the PartitionWatermark table every so many records or so often, and when the partition
+ * is revoked, rather than per record.  A write never moves a watermark backwards, so an instance that lost the
+ * partition cannot undo the progress of its new owner.  Watermarks are loaded when partitions are assigned.
+ *
+ * Watermarks are keyed by consumer group, which is read from the consumer thread, so must be used on it.
+ */
+@Slf4j
+@Component
+public class OffsetWatermarks {
+
+    private final DynamoDBMapper dynamoDBMapper;
+
+    private final KafkaDemoProperties.Watermark config;
+
+    private final ConcurrentMap<TopicPartition, Watermark> watermarks = new ConcurrentHashMap<>();
+
+    private final AtomicInteger completedSinceFlush = new AtomicInteger();
+
+    private final AtomicLong lastFlushMs = new AtomicLong(System.currentTimeMillis());
+
+    public OffsetWatermarks(final DynamoDBMapper dynamoDBMapper, final KafkaDemoProperties properties) {
+        this.dynamoDBMapper = dynamoDBMapper;
+        this.config = properties.getWatermark();
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Return true if the record at this offset has already been completed.
+     */
+    public boolean isCompleted(final TopicPartition topicPartition, final long offset) {
+        return config.isEnabled() && offset <= watermark(topicPartition).completedOffset;
+    }
+
+    /**
+     * Record that the record at this offset, and so every record before it, has been completed.
+     */
+    public void completed(final TopicPartition topicPartition, final long offset) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        final Watermark watermark = watermark(topicPartition);
+        synchronized (watermark) {
+            if (offset > watermark.completedOffset) {
+                watermark.completedOffset = offset;
+            }
+        }
+        if (completedSinceFlush.incrementAndGet() >= config.getFlushEveryRecords()
+                || System.currentTimeMillis() - lastFlushMs.get() >= config.getFlushInterval().toMillis()) {
+            flush(watermarks.keySet());
+        }
+    }
+
+    /**
+     * Load the watermarks of the newly assigned partitions, in a single batch read.
+     */
+    public void assigned(final Collection<TopicPartition> topicPartitions) {
+        if (!config.isEnabled() || topicPartitions.isEmpty()) {
+            return;
+        }
+        final String groupId = KafkaUtils.getConsumerGroupId();
+        final Map<String, TopicPartition> byId = topicPartitions.stream()
+                .collect(Collectors.toMap(tp -> PartitionWatermark.id(groupId, tp.topic(), tp.partition()), tp -> tp));
+        final List<Object> keys = byId.keySet().stream()
+                .map(id -> new PartitionWatermark(id, null))
+                .collect(Collectors.toList());
+        try {
+            final List<Object> loaded = dynamoDBMapper.batchLoad(keys, consistentReads())
+                    .getOrDefault(PartitionWatermark.TABLE_NAME, List.of());
+            loaded.forEach(item -> {
+                final PartitionWatermark persisted = (PartitionWatermark) item;
+                watermarks.put(byId.get(persisted.getId()), new Watermark(persisted.getId(), persisted.getCompletedOffset()));
+            });
+        } catch (SdkClientException e) {
+            // Loaded one by one on first use instead.
+            log.warn("Unable to load partition watermarks: " + e.getMessage());
+        }
+        byId.forEach((id, topicPartition) -> watermarks.putIfAbsent(topicPartition, new Watermark(id, -1L)));
+    }
+
+    /**
+     * Write the watermarks of the revoked partitions, then forget them, as another instance now owns their progress.
+     */
+    public void revoked(final Collection<TopicPartition> topicPartitions) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        flush(topicPartitions);
+        topicPartitions.forEach(watermarks::remove);
+    }
+
+    @PreDestroy
+    public void flush() {
+        if (config.isEnabled()) {
+            flush(watermarks.keySet());
+        }
+    }
+
+    private void flush(final Collection<TopicPartition> topicPartitions) {
+        completedSinceFlush.set(0);
+        lastFlushMs.set(System.currentTimeMillis());
+        topicPartitions.forEach(topicPartition -> {
+            final Watermark watermark = watermarks.get(topicPartition);
+            if (watermark != null) {
+                synchronized (watermark) {
+                    if (watermark.completedOffset > watermark.persistedOffset) {
+                        write(watermark);
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(final Watermark watermark) {
+        final DynamoDBSaveExpression saveExpression = new DynamoDBSaveExpression()
+                .withExpectedEntry(PartitionWatermark.ID, new ExpectedAttributeValue().withExists(false))
+                .withExpectedEntry(PartitionWatermark.COMPLETED_OFFSET, new ExpectedAttributeValue()
+                        .withComparisonOperator(ComparisonOperator.LT)
+                        .withAttributeValueList(new AttributeValue().withN(String.valueOf(watermark.completedOffset))))
+                .withConditionalOperator(ConditionalOperator.OR);
+        try {
+            dynamoDBMapper.save(new PartitionWatermark(watermark.id, watermark.completedOffset), saveExpression);
+            log.debug("Partition watermark {} written at offset {}", watermark.id, watermark.completedOffset);
+        } catch (ConditionalCheckFailedException e) {
+            log.debug("Partition watermark {} already beyond offset {}", watermark.id, watermark.completedOffset);
+        } catch (SdkClientException e) {
+            // Written with the next flush.
+            log.warn("Unable to write partition watermark " + watermark.id + ": " + e.getMessage());
+            return;
+        }
+        watermark.persistedOffset = watermark.completedOffset;
+    }
+
+    private Watermark watermark(final TopicPartition topicPartition) {
+        return watermarks.computeIfAbsent(topicPartition, tp -> {
+            final String id = PartitionWatermark.id(KafkaUtils.getConsumerGroupId(), tp.topic(), tp.partition());
+            final PartitionWatermark persisted = dynamoDBMapper.load(PartitionWatermark.class, id, consistentReads());
+            return new Watermark(id, persisted != null ? persisted.getCompletedOffset() : -1L);
+        });
+    }
+
+    private static DynamoDBMapperConfig consistentReads() {
+        return DynamoDBMapperConfig.builder().withConsistentReads(DynamoDBMapperConfig.ConsistentReads.CONSISTENT).build();
+    }
+
+    private static class Watermark {
+        private final String id;
+        private volatile long completedOffset;
+        private long persistedOffset;
+
+        Watermark(final String id, final long persistedOffset) {
+            this.id = id;
+            this.completedOffset = persistedOffset;
+            this.persistedOffset = persistedOffset;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package demo.kafka.cache;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class BoundedCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testHitAndMiss() {
+        BoundedCache<String, String> cache = cache(10, BoundedCache.EvictionPolicy.LRU);
+        cache.put("a", "1");
+
+        assertThat(cache.get("a"), equalTo("1"));
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.getHits(), equalTo(1L));
+        assertThat(cache.getMisses(), equalTo(1L));
+    }
+
+    @Test
+    public void testExpiredEntriesAreAbsent() {
+        BoundedCache<String, String> cache = cache(10, BoundedCache.EvictionPolicy.LRU);
+        cache.put("a", "1");
+
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+
+        assertThat(cache.get("a"), nullValue());
+        assertThat(cache.getExpirations(), equalTo(1L));
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void testLruEvictsLeastRecentlyUsed() {
+        BoundedCache<String, String> cache = cache(2, BoundedCache.EvictionPolicy.LRU);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("a"), equalTo("1"));
+        assertThat(cache.get("c"), equalTo("3"));
+        assertThat(cache.getEvictions(), equalTo(1L));
+    }
+
+    @Test
+    public void testFifoEvictsOldestInserted() {
+        BoundedCache<String, String> cache = cache(2, BoundedCache.EvictionPolicy.FIFO);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertThat(cache.get("a"), nullValue());
+        assertThat(cache.get("b"), equalTo("2"));
+        assertThat(cache.get("c"), equalTo("3"));
+        assertThat(cache.getEvictions(), equalTo(1L));
+    }
+
+    @Test
+    public void testSizeIsBoundedAcrossSegments() {
+        BoundedCache<String, String> cache = new BoundedCache<>(100, Duration.ofMinutes(1), BoundedCache.EvictionPolicy.LRU);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key-" + i, "value");
+        }
+
+        assertThat(cache.size() <= 100, equalTo(true));
+        assertThat(cache.getEvictions(), equalTo(1000L - cache.size()));
+    }
+
+    @Test
+    public void testRemoveIf() {
+        BoundedCache<String, String> cache = cache(10, BoundedCache.EvictionPolicy.FIFO);
+        cache.put("a", "keep");
+        cache.put("b", "drop");
+        cache.put("c", "drop");
+
+        assertThat(cache.removeIf((key, value) -> value.equals("drop")), equalTo(2));
+        assertThat(cache.get("a"), equalTo("keep"));
+        assertThat(cache.size(), equalTo(1));
+    }
+
+    /**
+     * Build a single segment cache on the test clock, so eviction order and expiry are deterministic.
+     */
+    private BoundedCache<String, String> cache(int maxEntries, BoundedCache.EvictionPolicy policy) {
+        return new BoundedCache<>(maxEntries, Duration.ofMinutes(1), policy, 1, clock::get);
+    }
+}
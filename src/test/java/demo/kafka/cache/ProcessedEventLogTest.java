@@ -0,0 +1,148 @@
+package demo.kafka.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ProcessedEventLogTest {
+
+    private static final Duration SEGMENT_DURATION = Duration.ofMinutes(10);
+    private static final Duration RETENTION = Duration.ofHours(1);
+
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testContainsAppended() {
+        ProcessedEventLog log = log(1024);
+        log.append("a");
+
+        assertThat(log.contains("a"), equalTo(true));
+        assertThat(log.contains("b"), equalTo(false));
+        assertThat(log.getHits(), equalTo(1L));
+        assertThat(log.getMisses(), equalTo(1L));
+    }
+
+    @Test
+    public void testRebuiltOnRestart() {
+        ProcessedEventLog log = log(1024);
+        log.append("a");
+        log.append("b");
+        log.flush();
+
+        ProcessedEventLog restarted = log(1024);
+
+        assertThat(restarted.contains("a"), equalTo(true));
+        assertThat(restarted.contains("b"), equalTo(true));
+        assertThat(restarted.size(), equalTo(2));
+    }
+
+    @Test
+    public void testRollsWhenFull() {
+        // Room for one entry of a single character event Id per segment.
+        ProcessedEventLog log = log(13);
+        log.append("a");
+        log.append("b");
+        log.append("c");
+
+        assertThat(log.getSegmentCount(), equalTo(3));
+        assertThat(log.contains("a"), equalTo(true));
+        assertThat(log.contains("c"), equalTo(true));
+    }
+
+    @Test
+    public void testEventIdTooLongForASegmentIsDroppedWithoutRolling() throws IOException {
+        ProcessedEventLog log = log(13);
+        log.append("a");
+        log.append("bb");
+
+        assertThat(log.contains("bb"), equalTo(false));
+        assertThat(log.getSegmentCount(), equalTo(1));
+        assertThat(segmentFiles(), equalTo(1L));
+    }
+
+    @Test
+    public void testSegmentsExpireAfterRetention() throws IOException {
+        ProcessedEventLog log = log(1024);
+        log.append("a");
+
+        clock.addAndGet(RETENTION.toMillis());
+        assertThat(log.contains("a"), equalTo(false));
+
+        log.append("b");
+        assertThat(log.getSegmentCount(), equalTo(1));
+        assertThat(log.size(), equalTo(1));
+        assertThat(segmentFiles(), equalTo(1L));
+    }
+
+    @Test
+    public void testExpiryRemovesOnlyTheExpiredSegmentsEntries() {
+        ProcessedEventLog log = log(1024);
+        log.append("a");
+        clock.addAndGet(SEGMENT_DURATION.toMillis());
+        log.append("b");
+
+        clock.addAndGet(RETENTION.minus(SEGMENT_DURATION).toMillis());
+        log.append("c");
+
+        assertThat(log.getSegmentCount(), equalTo(2));
+        assertThat(log.size(), equalTo(2));
+        assertThat(log.contains("a"), equalTo(false));
+        assertThat(log.contains("b"), equalTo(true));
+        assertThat(log.contains("c"), equalTo(true));
+    }
+
+    @Test
+    public void testExpiredEntriesNotLoaded() throws IOException {
+        log(1024).append("a");
+
+        clock.addAndGet(RETENTION.toMillis());
+        ProcessedEventLog restarted = log(1024);
+
+        assertThat(restarted.contains("a"), equalTo(false));
+        assertThat(restarted.getSegmentCount(), equalTo(0));
+        assertThat(segmentFiles(), equalTo(0L));
+    }
+
+    /**
+     * An entry whose length was never written, as the process died part way through it, ends the segment.
+     */
+    @Test
+    public void testPartialEntryIgnored() throws IOException {
+        log(1024).append("a");
+        try (Stream<Path> files = Files.list(directory); FileChannel channel = FileChannel.open(files.findFirst().get(), StandardOpenOption.WRITE)) {
+            ByteBuffer partial = ByteBuffer.allocate(12);
+            partial.putInt(0).putLong(clock.get()).flip();
+            channel.write(partial, 13);
+        }
+
+        ProcessedEventLog restarted = log(1024);
+
+        assertThat(restarted.contains("a"), equalTo(true));
+        assertThat(restarted.size(), equalTo(1));
+    }
+
+    private ProcessedEventLog log(int segmentBytes) {
+        return new ProcessedEventLog(directory, segmentBytes, SEGMENT_DURATION, RETENTION, clock::get);
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package demo.kafka.circuitbreaker;
+
+import java.util.stream.IntStream;
+
+import demo.kafka.circuitbreaker.ThirdpartyCircuitBreaker.State;
+import demo.kafka.properties.KafkaDemoProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+public class CircuitBreakerPolicyTest {
+
+    private final KafkaDemoProperties.CircuitBreaker config = new KafkaDemoProperties.CircuitBreaker();
+
+    private CircuitBreakerPolicy policy;
+
+    @BeforeEach
+    public void setUp() {
+        config.setSlidingWindowSize(10);
+        config.setMinimumCalls(4);
+        config.setFailureRateThreshold(0.5);
+        config.setHalfOpenProbes(2);
+        policy = new CircuitBreakerPolicy(config);
+    }
+
+    @Test
+    public void testStaysClosedBelowMinimumCalls() {
+        IntStream.range(0, 3).forEach(i -> assertThat(policy.onFailure(), equalTo(false)));
+        assertThat(policy.getState(), equalTo(State.CLOSED));
+        assertThat(policy.tryAcquire(), equalTo(true));
+    }
+
+    @Test
+    public void testOpensAtFailureRateThreshold() {
+        policy.onSuccess();
+        policy.onSuccess();
+        assertThat(policy.onFailure(), equalTo(false));
+        assertThat(policy.onFailure(), equalTo(true));
+        assertThat(policy.getState(), equalTo(State.OPEN));
+        assertThat(policy.tryAcquire(), equalTo(false));
+    }
+
+    @Test
+    public void testOldOutcomesLeaveTheWindow() {
+        IntStream.range(0, 4).forEach(i -> policy.onFailure());
+        policy.halfOpen();
+        policy.tryAcquire();
+        policy.tryAcquire();
+        policy.onSuccess();
+        policy.onSuccess();
+
+        // Closed with an empty window, then four failures are pushed out by ten successes.
+        IntStream.range(0, 3).forEach(i -> policy.onFailure());
+        IntStream.range(0, 10).forEach(i -> policy.onSuccess());
+        assertThat(policy.getFailureRate(), closeTo(0.0, 0.001));
+        IntStream.range(0, 4).forEach(i -> assertThat(policy.onFailure(), equalTo(false)));
+        assertThat(policy.onFailure(), equalTo(true));
+    }
+
+    @Test
+    public void testHalfOpenLetsOnlyTheProbesThrough() {
+        IntStream.range(0, 4).forEach(i -> policy.onFailure());
+        assertThat(policy.halfOpen(), equalTo(true));
+        assertThat(policy.getState(), equalTo(State.HALF_OPEN));
+        assertThat(policy.tryAcquire(), equalTo(true));
+        assertThat(policy.tryAcquire(), equalTo(true));
+        assertThat(policy.tryAcquire(), equalTo(false));
+    }
+
+    @Test
+    public void testClosesWhenAllProbesSucceed() {
+        IntStream.range(0, 4).forEach(i -> policy.onFailure());
+        policy.halfOpen();
+        policy.tryAcquire();
+        policy.tryAcquire();
+        assertThat(policy.onSuccess(), equalTo(false));
+        assertThat(policy.onSuccess(), equalTo(true));
+        assertThat(policy.getState(), equalTo(State.CLOSED));
+        assertThat(policy.getFailureRate(), closeTo(0.0, 0.001));
+    }
+
+    @Test
+    public void testOpensAgainWhenAProbeFails() {
+        IntStream.range(0, 4).forEach(i -> policy.onFailure());
+        policy.halfOpen();
+        policy.tryAcquire();
+        policy.onSuccess();
+        assertThat(policy.onFailure(), equalTo(true));
+        assertThat(policy.getState(), equalTo(State.OPEN));
+        assertThat(policy.halfOpen(), equalTo(true));
+        assertThat(policy.halfOpen(), equalTo(false));
+    }
+
+    @Test
+    public void testOutcomesWhileOpenAreIgnored() {
+        IntStream.range(0, 4).forEach(i -> policy.onFailure());
+        assertThat(policy.onFailure(), equalTo(false));
+        assertThat(policy.onSuccess(), equalTo(false));
+        assertThat(policy.getState(), equalTo(State.OPEN));
+    }
+}
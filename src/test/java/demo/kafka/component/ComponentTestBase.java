@@ -1,5 +1,6 @@
 package demo.kafka.component;
 
+import demo.kafka.domain.PartitionWatermark;
 import demo.kafka.domain.ProcessedEvent;
 import dev.lydtech.component.framework.client.localstack.DynamoDbClient;
 import dev.lydtech.component.framework.extension.TestContainersSetupExtension;
@@ -23,5 +24,6 @@ public abstract class ComponentTestBase {
     @BeforeAll
     public static void setUpOnce() {
         DynamoDbClient.getInstance().createTable(ProcessedEvent.class, REGION);
+        DynamoDbClient.getInstance().createTable(PartitionWatermark.class, REGION);
     }
 }
@@ -0,0 +1,87 @@
+package demo.kafka.concurrency;
+
+import java.time.Duration;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ConcurrencyPolicyTest {
+
+    private static final long COOLDOWN_MS = Duration.ofMinutes(2).toMillis();
+
+    // 10ms per record, so a lag of 6000 is 60 seconds of work for one thread.
+    private static final double MEAN_RECORD_SECONDS = 0.01;
+
+    private final KafkaDemoProperties.Concurrency config = new KafkaDemoProperties.Concurrency();
+
+    private ConcurrencyPolicy policy;
+
+    @BeforeEach
+    public void setUp() {
+        config.setMin(1);
+        config.setMax(4);
+        config.setTargetDrainTime(Duration.ofSeconds(60));
+        config.setScaleDownRatio(0.5);
+        config.setScaleUpEvaluations(2);
+        config.setScaleDownEvaluations(3);
+        config.setCooldown(Duration.ofMillis(COOLDOWN_MS));
+        policy = new ConcurrencyPolicy(config, 0);
+    }
+
+    @Test
+    public void testScalesUpToMeetTargetAfterConsecutiveEvaluations() {
+        long now = COOLDOWN_MS;
+        assertThat(policy.evaluate(1, 6, 18000, MEAN_RECORD_SECONDS, now), equalTo(1));
+        assertThat(policy.evaluate(1, 6, 18000, MEAN_RECORD_SECONDS, now + 1), equalTo(3));
+    }
+
+    @Test
+    public void testNeverScalesAboveMaxOrAssignedPartitions() {
+        long now = COOLDOWN_MS;
+        policy.evaluate(1, 2, 60000, MEAN_RECORD_SECONDS, now);
+        assertThat(policy.evaluate(1, 2, 60000, MEAN_RECORD_SECONDS, now + 1), equalTo(2));
+
+        policy = new ConcurrencyPolicy(config, 0);
+        policy.evaluate(1, 12, 60000, MEAN_RECORD_SECONDS, now);
+        assertThat(policy.evaluate(1, 12, 60000, MEAN_RECORD_SECONDS, now + 1), equalTo(4));
+    }
+
+    @Test
+    public void testSpikeInterruptingStreakDoesNotScale() {
+        long now = COOLDOWN_MS;
+        assertThat(policy.evaluate(1, 6, 18000, MEAN_RECORD_SECONDS, now), equalTo(1));
+        assertThat(policy.evaluate(1, 6, 100, MEAN_RECORD_SECONDS, now + 1), equalTo(1));
+        assertThat(policy.evaluate(1, 6, 18000, MEAN_RECORD_SECONDS, now + 2), equalTo(1));
+    }
+
+    @Test
+    public void testNoChangeWithinCooldown() {
+        policy.evaluate(1, 6, 18000, MEAN_RECORD_SECONDS, 0);
+        assertThat(policy.evaluate(1, 6, 18000, MEAN_RECORD_SECONDS, 1), equalTo(1));
+        assertThat(policy.evaluate(1, 6, 18000, MEAN_RECORD_SECONDS, COOLDOWN_MS), equalTo(3));
+        assertThat(policy.evaluate(3, 6, 0, MEAN_RECORD_SECONDS, COOLDOWN_MS + 1), equalTo(3));
+        assertThat(policy.evaluate(3, 6, 0, MEAN_RECORD_SECONDS, COOLDOWN_MS + 2), equalTo(3));
+        assertThat(policy.evaluate(3, 6, 0, MEAN_RECORD_SECONDS, COOLDOWN_MS + 3), equalTo(3));
+    }
+
+    @Test
+    public void testScalesDownOneThreadAtATime() {
+        long now = COOLDOWN_MS;
+        assertThat(policy.evaluate(3, 6, 0, MEAN_RECORD_SECONDS, now), equalTo(3));
+        assertThat(policy.evaluate(3, 6, 0, MEAN_RECORD_SECONDS, now + 1), equalTo(3));
+        assertThat(policy.evaluate(3, 6, 0, MEAN_RECORD_SECONDS, now + 2), equalTo(2));
+    }
+
+    @Test
+    public void testHoldsBetweenThresholds() {
+        long now = COOLDOWN_MS;
+        // 2 threads take 45 seconds, under the target, while 1 thread would take 90, over half the target.
+        for (int i = 0; i < 10; i++) {
+            assertThat(policy.evaluate(2, 6, 9000, MEAN_RECORD_SECONDS, now + i), equalTo(2));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package demo.kafka.consumer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.exception.DynamoDbThrottledException;
+import demo.kafka.exception.KafkaDemoException;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.metrics.DemoMetrics;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.service.DemoService;
+import demo.kafka.watermark.OffsetWatermarks;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.SendResult;
+
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The async send paths of the batch listener, with the service and watermarks mocked.
+ */
+public class KafkaIdempotentBatchConsumerTest {
+
+    private static final String TOPIC = "demo-inbound-topic";
+
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private final KafkaDemoProperties properties = new KafkaDemoProperties();
+
+    private final DemoService demoService = mock(DemoService.class);
+
+    private final OffsetWatermarks offsetWatermarks = mock(OffsetWatermarks.class);
+
+    private KafkaIdempotentBatchConsumer consumer;
+
+    @BeforeEach
+    public void setUp() {
+        properties.getBatch().setAsyncSend(true);
+        when(offsetWatermarks.isEnabled()).thenReturn(true);
+        when(demoService.findProcessedEventIds(anyCollection(), anyString())).thenReturn(Collections.emptySet());
+        when(demoService.processNewAsync(anyString(), anyString(), any(), any(), anyLong()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+        when(demoService.recordProcessedAsync(anyString(), any(), anyLong())).thenReturn(CompletableFuture.completedFuture(null));
+        consumer = new KafkaIdempotentBatchConsumer(demoService, properties, new SimpleAsyncTaskExecutor(),
+                new DemoMetrics(new SimpleMeterRegistry()), offsetWatermarks);
+    }
+
+    @Test
+    public void testFailedSendFailsBatchAtItsRecord() {
+        when(demoService.processNewAsync(eq("event-1"), anyString(), any(), any(), anyLong()))
+                .thenReturn(CompletableFuture.failedFuture(new KafkaDemoException(new RuntimeException("send failed"))));
+
+        final BatchListenerFailedException failure = assertThrows(BatchListenerFailedException.class, () -> consumer.listen(records(3)));
+
+        assertThat(failure.getIndex(), equalTo(1));
+        verify(demoService).abandon("event-1");
+        verify(demoService, never()).recordProcessedAsync(eq("event-1"), any(), anyLong());
+        // Still recorded, so dropped as a duplicate when the batch is redelivered from the failed record.
+        verify(demoService).recordProcessedAsync("event-2", PARTITION, 2L);
+        verify(offsetWatermarks).completed(PARTITION, 0L);
+    }
+
+    @Test
+    public void testFailedWriteFailsBatchAtItsRecord() {
+        when(demoService.recordProcessedAsync(eq("event-1"), any(), anyLong()))
+                .thenReturn(CompletableFuture.failedFuture(new DynamoDbThrottledException("throttled")));
+        when(demoService.recordProcessedAsync(eq("event-2"), any(), anyLong()))
+                .thenReturn(CompletableFuture.failedFuture(new DynamoDbThrottledException("throttled")));
+
+        final BatchListenerFailedException failure = assertThrows(BatchListenerFailedException.class, () -> consumer.listen(records(4)));
+
+        assertThat(failure.getIndex(), equalTo(1));
+        assertThat(failure.getCause(), instanceOf(DynamoDbThrottledException.class));
+        verify(demoService).recordProcessedAsync("event-3", PARTITION, 3L);
+        verify(offsetWatermarks).completed(PARTITION, 0L);
+    }
+
+    @Test
+    public void testDuplicateWriteCompletesBatch() {
+        when(demoService.recordProcessedAsync(eq("event-1"), any(), anyLong()))
+                .thenReturn(CompletableFuture.failedFuture(new DuplicateEventException("event-1")));
+
+        consumer.listen(records(3));
+
+        verify(offsetWatermarks).completed(PARTITION, 2L);
+    }
+
+    private static List<ConsumerRecord<String, Object>> records(final int count) {
+        return IntStream.range(0, count).mapToObj(offset -> {
+            final ConsumerRecord<String, Object> record = new ConsumerRecord<>(TOPIC, 0, offset, "key-" + offset, buildDemoInboundEvent("key-" + offset));
+            record.headers().add(KafkaClient.EVENT_ID_HEADER_KEY, ("event-" + offset).getBytes(StandardCharsets.UTF_8));
+            return record;
+        }).collect(Collectors.toList());
+    }
+}
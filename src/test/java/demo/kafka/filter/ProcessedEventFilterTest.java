@@ -0,0 +1,81 @@
+package demo.kafka.filter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.InMemoryIdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+
+import static demo.kafka.filter.ProcessedEventFilter.Result.ABSENT;
+import static demo.kafka.filter.ProcessedEventFilter.Result.MAYBE;
+import static demo.kafka.filter.ProcessedEventFilter.Result.UNAVAILABLE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ProcessedEventFilterTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("demo-inbound-topic", 0);
+
+    // The end offset when the partition is assigned.  Records below it may be redeliveries.
+    private static final long END_OFFSET = 100L;
+
+    private final KafkaDemoProperties properties = new KafkaDemoProperties();
+
+    private final InMemoryIdempotencyStore store = new InMemoryIdempotencyStore();
+
+    private ProcessedEventFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        properties.getProcessedEventFilter().setEnabled(true);
+        properties.getProcessedEventFilter().setExpectedInsertions(1000);
+        // Rebuilt on the assigning thread.
+        filter = new ProcessedEventFilter(store, properties, new ConcurrentTaskExecutor(Runnable::run), new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void testRedeliveryMissedByRebuildIsLookedUp() {
+        store.markProcessed("indexed", PARTITION, 97L);
+        filter.assigned(List.of(PARTITION), Map.of(PARTITION, END_OFFSET));
+
+        // Completed by the previous owner just before the handover, but not yet seen by the rebuild's query.
+        store.markProcessed("handed-over", PARTITION, 98L);
+
+        assertThat(filter.check("handed-over", PARTITION, 98L), equalTo(UNAVAILABLE));
+        assertThat(filter.check("indexed", PARTITION, 97L), equalTo(UNAVAILABLE));
+    }
+
+    @Test
+    public void testRecordsSinceAssignmentAnsweredFromFilter() {
+        store.markProcessed("indexed", PARTITION, 97L);
+        filter.assigned(List.of(PARTITION), Map.of(PARTITION, END_OFFSET));
+
+        assertThat(filter.check("indexed", PARTITION, END_OFFSET), equalTo(MAYBE));
+        assertThat(filter.check("new", PARTITION, END_OFFSET + 1), equalTo(ABSENT));
+
+        filter.markProcessed("new", PARTITION);
+
+        assertThat(filter.check("new", PARTITION, END_OFFSET + 2), equalTo(MAYBE));
+    }
+
+    @Test
+    public void testNoEndOffsetNeverAnsweredFromFilter() {
+        filter.assigned(List.of(PARTITION), Collections.emptyMap());
+
+        assertThat(filter.check("new", PARTITION, Long.MAX_VALUE - 1), equalTo(UNAVAILABLE));
+    }
+
+    @Test
+    public void testRevokedNotAnsweredFromFilter() {
+        filter.assigned(List.of(PARTITION), Map.of(PARTITION, END_OFFSET));
+        filter.revoked(List.of(PARTITION));
+
+        assertThat(filter.check("new", PARTITION, END_OFFSET + 1), equalTo(UNAVAILABLE));
+    }
+}
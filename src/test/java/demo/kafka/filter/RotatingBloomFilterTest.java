@@ -0,0 +1,58 @@
+package demo.kafka.filter;
+
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+public class RotatingBloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01);
+        IntStream.range(0, 1000).forEach(i -> filter.put("event-" + i));
+
+        assertThat(IntStream.range(0, 1000).allMatch(i -> filter.mightContain("event-" + i)), equalTo(true));
+    }
+
+    @Test
+    public void testFalsePositiveRateNearTarget() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        IntStream.range(0, 10000).forEach(i -> filter.put(UUID.randomUUID().toString()));
+
+        long falsePositives = IntStream.range(0, 10000).filter(i -> filter.mightContain(UUID.randomUUID().toString())).count();
+
+        assertThat(falsePositives, lessThan(200L));
+        assertThat(filter.expectedFalsePositiveRate(), lessThan(0.02));
+    }
+
+    /**
+     * The previous generation is still looked up after a rotation, and dropped at the next.
+     */
+    @Test
+    public void testRotationKeepsPreviousGeneration() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(100, 0.001);
+        filter.put("first");
+        IntStream.range(0, 99).forEach(i -> filter.put("second-" + i));
+
+        assertThat(filter.mightContain("first"), equalTo(true));
+
+        IntStream.range(0, 100).forEach(i -> filter.put("third-" + i));
+
+        assertThat(filter.mightContain("first"), equalTo(false));
+        assertThat(filter.mightContain("third-0"), equalTo(true));
+    }
+
+    @Test
+    public void testMemoryBoundedByTwoGenerations() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(100, 0.01);
+        long generation = filter.sizeInBytes();
+        IntStream.range(0, 1000).forEach(i -> filter.put("event-" + i));
+
+        assertThat(filter.sizeInBytes(), equalTo(2 * generation));
+    }
+}
@@ -0,0 +1,93 @@
+package demo.kafka.hedge;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class HedgePolicyTest {
+
+    private final KafkaDemoProperties.HedgedLookup config = new KafkaDemoProperties.HedgedLookup();
+
+    @BeforeEach
+    public void setUp() {
+        config.setDelayPercentile(0.9);
+        config.setInitialDelay(Duration.ofMillis(50));
+        config.setMinDelay(Duration.ofMillis(2));
+        config.setLatencyWindow(100);
+        config.setMinSamples(10);
+        config.setMaxHedgeRatio(0.25);
+        config.setMaxBurst(2);
+    }
+
+    @Test
+    public void testInitialDelayUntilMinSamples() {
+        final HedgePolicy policy = new HedgePolicy(config);
+        for (int i = 0; i < 9; i++) {
+            policy.record(millis(5));
+        }
+        assertThat(policy.getDelayNanos(), equalTo(millis(50)));
+
+        policy.record(millis(5));
+
+        assertThat(policy.getDelayNanos(), equalTo(millis(5)));
+    }
+
+    @Test
+    public void testDelayIsPercentileOfWindow() {
+        final HedgePolicy policy = new HedgePolicy(config);
+        for (int i = 1; i <= 100; i++) {
+            policy.record(millis(i));
+        }
+        assertThat(policy.getDelayNanos(), equalTo(millis(90)));
+
+        // The window slides, so the earlier slow reads drop out.
+        for (int i = 0; i < 100; i++) {
+            policy.record(millis(10));
+        }
+        assertThat(policy.getDelayNanos(), equalTo(millis(10)));
+    }
+
+    @Test
+    public void testDelayNotBelowMinimum() {
+        final HedgePolicy policy = new HedgePolicy(config);
+        for (int i = 0; i < 100; i++) {
+            policy.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        assertThat(policy.getDelayNanos(), equalTo(millis(2)));
+    }
+
+    @Test
+    public void testHedgesLimitedToRatioOfLookups() {
+        final HedgePolicy policy = new HedgePolicy(config);
+        for (int i = 0; i < 3; i++) {
+            policy.onLookup();
+        }
+        assertThat(policy.tryHedge(), equalTo(false));
+
+        policy.onLookup();
+
+        assertThat(policy.tryHedge(), equalTo(true));
+        assertThat(policy.tryHedge(), equalTo(false));
+    }
+
+    @Test
+    public void testHedgeBudgetCappedAtBurst() {
+        final HedgePolicy policy = new HedgePolicy(config);
+        for (int i = 0; i < 100; i++) {
+            policy.onLookup();
+        }
+        assertThat(policy.tryHedge(), equalTo(true));
+        assertThat(policy.tryHedge(), equalTo(true));
+        assertThat(policy.tryHedge(), equalTo(false));
+    }
+
+    private static long millis(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,144 @@
+package demo.kafka.hedge;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.exception.DynamoDbThrottledException;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.DynamoDbRateLimiter;
+import demo.kafka.store.InMemoryIdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HedgedLookupTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final KafkaDemoProperties properties = new KafkaDemoProperties();
+
+    // Holds up the first read of each lookup until released.
+    private final CountDownLatch slowRead = new CountDownLatch(1);
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private final InMemoryIdempotencyStore store = new InMemoryIdempotencyStore() {
+        @Override
+        public boolean isProcessed(final String eventId) {
+            if (reads.getAndIncrement() % 2 == 0) {
+                try {
+                    slowRead.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.isProcessed(eventId);
+        }
+    };
+
+    @BeforeEach
+    public void setUp() {
+        properties.getHedgedLookup().setEnabled(true);
+        properties.getHedgedLookup().setInitialDelay(Duration.ofMillis(20));
+        properties.getHedgedLookup().setMaxHedgeRatio(1);
+        properties.getHedgedLookup().setMaxBurst(1);
+        store.markProcessed("processed");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        slowRead.countDown();
+    }
+
+    @Test
+    public void testHedgeAnswersSlowRead() {
+        final HedgedLookup lookup = hedgedLookup();
+
+        assertThat(lookup.isProcessed("processed"), equalTo(true));
+
+        assertThat(count("kafkademo.dedup.lookup.hedges.fired"), equalTo(1.0));
+        assertThat(count("kafkademo.dedup.lookup.hedges.won"), equalTo(1.0));
+    }
+
+    @Test
+    public void testNoHedgeForFastRead() {
+        slowRead.countDown();
+        final HedgedLookup lookup = hedgedLookup();
+
+        assertThat(lookup.isProcessed("new"), equalTo(false));
+
+        assertThat(count("kafkademo.dedup.lookup.hedges.fired"), equalTo(0.0));
+        assertThat(reads.get(), equalTo(1));
+    }
+
+    @Test
+    public void testSlowReadAwaitedWhenBudgetSpent() {
+        properties.getHedgedLookup().setMaxHedgeRatio(0.5);
+        final HedgedLookup lookup = hedgedLookup();
+        new Thread(() -> {
+            sleep(100);
+            slowRead.countDown();
+        }).start();
+
+        assertThat(lookup.isProcessed("processed"), equalTo(true));
+
+        assertThat(count("kafkademo.dedup.lookup.hedges.skipped"), equalTo(1.0));
+        assertThat(count("kafkademo.dedup.lookup.hedges.fired"), equalTo(0.0));
+    }
+
+    @Test
+    public void testFailsOnlyWhenBothReadsFail() {
+        final InMemoryIdempotencyStore failingStore = new InMemoryIdempotencyStore() {
+            @Override
+            public boolean isProcessed(final String eventId) {
+                sleep(50);
+                throw new DynamoDbThrottledException("throttled");
+            }
+        };
+        final HedgedLookup lookup = new HedgedLookup(failingStore, properties, null, new SimpleAsyncTaskExecutor(), meterRegistry);
+
+        assertThrows(DynamoDbThrottledException.class, () -> lookup.isProcessed("new"));
+        assertThat(count("kafkademo.dedup.lookup.hedges.fired"), equalTo(1.0));
+    }
+
+    @Test
+    public void testNoHedgeWhileRateLimiterHoldsBackReads() {
+        // Starts below its maximum rate, as it would be after throttling.
+        properties.getDynamodb().setRateLimitEnabled(true);
+        final DynamoDbRateLimiter rateLimiter = new DynamoDbRateLimiter(properties.getDynamodb(), meterRegistry);
+        final HedgedLookup lookup = new HedgedLookup(store, properties, rateLimiter, new SimpleAsyncTaskExecutor(), meterRegistry);
+        new Thread(() -> {
+            sleep(100);
+            slowRead.countDown();
+        }).start();
+
+        assertThat(lookup.isProcessed("processed"), equalTo(true));
+
+        assertThat(count("kafkademo.dedup.lookup.hedges.skipped"), equalTo(1.0));
+        assertThat(count("kafkademo.dedup.lookup.hedges.fired"), equalTo(0.0));
+    }
+
+    private HedgedLookup hedgedLookup() {
+        return new HedgedLookup(store, properties, null, new SimpleAsyncTaskExecutor(), meterRegistry);
+    }
+
+    private double count(final String name) {
+        return meterRegistry.counter(name).count();
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
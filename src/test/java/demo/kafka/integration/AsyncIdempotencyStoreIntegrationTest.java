@@ -0,0 +1,111 @@
+package demo.kafka.integration;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.store.DynamoDbAsyncIdempotencyStore;
+import demo.kafka.store.IdempotencyStore;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Run with the idempotency store on the non-blocking DynamoDB client.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.idempotencyStore=DYNAMODB_ASYNC" })
+public class AsyncIdempotencyStoreIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    @Test
+    public void testEventDeduplication() throws Exception {
+        assertThat(idempotencyStore, instanceOf(DynamoDbAsyncIdempotencyStore.class));
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        TimeUnit.SECONDS.sleep(5);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+        assertThat(idempotencyStore.isProcessed(eventId), equalTo(true));
+    }
+
+    /**
+     * The second conditional write of the same event completes exceptionally as a duplicate.
+     */
+    @Test
+    public void testMarkProcessedAsyncDuplicate() {
+        String eventId = UUID.randomUUID().toString();
+        TopicPartition topicPartition = new TopicPartition(DEMO_INBOUND_TEST_TOPIC, 0);
+
+        idempotencyStore.markProcessedAsync(eventId, topicPartition, 1L).join();
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> idempotencyStore.markProcessedAsync(eventId, topicPartition, 2L).join());
+        assertThat(e.getCause(), instanceOf(DuplicateEventException.class));
+        assertThat(idempotencyStore.isProcessedAsync(eventId).join(), equalTo(true));
+        assertThat(idempotencyStore.findProcessed(Arrays.asList(eventId, UUID.randomUUID().toString())), equalTo(Collections.singleton(eventId)));
+    }
+
+    /**
+     * An event claimed but not completed is not yet processed, and only its owner can complete it.
+     */
+    @Test
+    public void testClaimAndCompleteAsync() {
+        String eventId = UUID.randomUUID().toString();
+
+        idempotencyStore.claim(eventId, "owner-1", Duration.ofMinutes(1));
+        assertThat(idempotencyStore.isProcessedAsync(eventId).join(), equalTo(false));
+        assertThat(idempotencyStore.completeAsync(eventId, "owner-2").join(), equalTo(false));
+        assertThat(idempotencyStore.completeAsync(eventId, "owner-1").join(), equalTo(true));
+        assertThat(idempotencyStore.isProcessedAsync(eventId).join(), equalTo(true));
+        assertThrows(DuplicateEventException.class, () -> idempotencyStore.claim(eventId, "owner-2", Duration.ofMinutes(1)));
+    }
+}
@@ -0,0 +1,85 @@
+package demo.kafka.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.event.DemoInboundEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.context.TestPropertySource;
+
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Run with the processed event cache warm-up enabled, restarting the listeners to revoke and then reassign the
+ * partitions.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.processedEventCache.enabled=true", "kafkademo.processedEventCache.warmUpEnabled=true" })
+public class CacheWarmUpIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @Autowired
+    private ProcessedEventCache processedEventCache;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    /**
+     * The processed event is evicted from the cache when its partition is revoked, and loaded back when reassigned.
+     */
+    @Test
+    public void testCacheEvictedOnRevokeAndWarmedUpOnAssign() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        assertThat(processedEventCache.isProcessed(eventId), equalTo(true));
+
+        registry.getListenerContainers().forEach(MessageListenerContainer::stop);
+        assertThat(processedEventCache.isProcessed(eventId), equalTo(false));
+
+        registry.getListenerContainers().forEach(container -> {
+            container.start();
+            ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic());
+        });
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> processedEventCache.isProcessed(eventId), equalTo(true));
+    }
+}
@@ -0,0 +1,80 @@
+package demo.kafka.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.circuitbreaker.ThirdpartyCircuitBreaker;
+import demo.kafka.consumer.KafkaIdempotentConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Run with the circuit breaker enabled, opening on the first two failed calls and half opening after ten seconds, by
+ * when the record's retries have been rejected by the open breaker.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.circuitBreaker.enabled=true", "kafkademo.circuitBreaker.minimumCalls=2",
+        "kafkademo.circuitBreaker.openDuration=10s", "kafkademo.circuitBreaker.halfOpenProbes=1" })
+public class CircuitBreakerIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @Autowired
+    private ThirdpartyCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    /**
+     * The listener is paused while the breaker is open, and the held record is processed once the half open probe
+     * succeeds.
+     */
+    @Test
+    public void testListenerPausedWhileOpenAndResumedOnRecovery() throws Exception {
+        String key = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 503, "Unavailable");
+
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, UUID.randomUUID().toString(), key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(15, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(circuitBreaker::getState, equalTo(ThirdpartyCircuitBreaker.State.OPEN));
+        assertThat(registry.getListenerContainer(KafkaIdempotentConsumer.LISTENER_ID).isPauseRequested(), equalTo(true));
+        assertThat(circuitBreaker.health().getStatus(), equalTo(Status.UP));
+        assertThat(circuitBreaker.health().getDetails().get("state"), equalTo(ThirdpartyCircuitBreaker.State.OPEN));
+
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        assertThat(circuitBreaker.getState(), equalTo(ThirdpartyCircuitBreaker.State.CLOSED));
+        assertThat(registry.getListenerContainer(KafkaIdempotentConsumer.LISTENER_ID).isPauseRequested(), equalTo(false));
+        assertThat(circuitBreaker.health().getStatus(), equalTo(Status.UP));
+        assertThat(circuitBreaker.health().getDetails().get("state"), equalTo(ThirdpartyCircuitBreaker.State.CLOSED));
+    }
+}
@@ -0,0 +1,66 @@
+package demo.kafka.integration;
+
+import java.util.Collections;
+import java.util.List;
+
+import demo.kafka.exception.CircuitBreakerOpenException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerAwareErrorHandler;
+import org.springframework.kafka.listener.ListenerExecutionFailedException;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Run with retry topics and the circuit breaker, with a single retry topic so that its record is on its last attempt.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.retryTopics.enabled=true", "kafkademo.retryTopics.maxAttempts=2",
+        "kafkademo.circuitBreaker.enabled=true", "kafkademo.circuitBreaker.rejectedBackOff=10ms" })
+public class CircuitBreakerRetryTopicsIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    /**
+     * A record rejected by the open breaker on its last attempt is sought back to, every time, rather than recovered to
+     * the dead letter topic.
+     */
+    @Test
+    public void testRejectedRecordHeldOnLastAttempt() {
+        final MessageListenerContainer retryContainer = registry.getListenerContainers().stream()
+                .filter(container -> container.getListenerId().contains("-retry"))
+                .findFirst()
+                .orElseThrow();
+        final Object errorHandler = ((AbstractMessageListenerContainer<?, ?>) retryContainer).getGenericErrorHandler();
+        assertThat(errorHandler, instanceOf(ContainerAwareErrorHandler.class));
+
+        final String topic = retryContainer.getContainerProperties().getTopics()[0];
+        final List<ConsumerRecord<?, ?>> records = Collections.singletonList(new ConsumerRecord<>(topic, 0, 0L, "key", "value"));
+        final Consumer<?, ?> consumer = mock(Consumer.class);
+        for (int attempt = 0; attempt < 10; attempt++) {
+            final Exception rejection = new ListenerExecutionFailedException("rejected", new CircuitBreakerOpenException("thirdparty"));
+            // Thrown to seek back to the record, where a recovered record would be committed instead.
+            assertThrows(KafkaException.class, () -> ((ContainerAwareErrorHandler) errorHandler).handle(rejection, records, consumer, retryContainer));
+        }
+    }
+}
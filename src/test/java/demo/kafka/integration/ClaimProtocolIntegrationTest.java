@@ -0,0 +1,84 @@
+package demo.kafka.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.event.DemoInboundEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Run the deduplication scenarios with the claim-then-complete protocol, where each event is claimed with a single
+ * conditional write before processing.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.claim.enabled=true" })
+public class ClaimProtocolIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    @Test
+    public void testClaimEventDeduplication() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        TimeUnit.SECONDS.sleep(5);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+
+    /**
+     * A retryable failure releases the claim, so the retry is able to claim and complete the event.
+     */
+    @Test
+    public void testClaimReleasedOnRetryableFailure() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 503, "Unavailable", "retry", "Started", "Succeed");
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success", "retry", "Succeed", "Succeed");
+
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(20, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+}
@@ -0,0 +1,94 @@
+package demo.kafka.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.event.DemoInboundEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Run the deduplication scenarios with the batch listener, where duplicates are detected by a BatchGetItem lookup per
+ * poll.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.batch.enabled=true" })
+public class IdempotentBatchConsumerIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    /**
+     * Send in three events with the same event Id, and show that only one outbound event is emitted.
+     */
+    @Test
+    public void testBatchEventDeduplication() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        TimeUnit.SECONDS.sleep(5);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+
+    /**
+     * A retryable failure part way through a batch must not cause the events already processed to be replayed.
+     *
+     * The first call for the second key fails with a 503, so the batch is retried from that record onwards.  The event
+     * for the first key is emitted and its third party call made only once.
+     */
+    @Test
+    public void testPartialBatchFailure() throws Exception {
+        String key1 = UUID.randomUUID().toString();
+        String key2 = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key1, 200, "Success");
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key2, 503, "Unavailable", "retry", "Started", "Succeed");
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key2, 200, "Success", "retry", "Succeed", "Succeed");
+
+        // Send both events to the same partition so they are consumed in the same batch.
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, UUID.randomUUID().toString(), key1, 0, buildDemoInboundEvent(key1));
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, UUID.randomUUID().toString(), key2, 0, buildDemoInboundEvent(key2));
+
+        Awaitility.await().atMost(20, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(2));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key1)));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key2)));
+    }
+}
@@ -10,10 +10,12 @@ import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
 import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
 import com.github.tomakehurst.wiremock.client.WireMock;
 import demo.kafka.KafkaDemoConfiguration;
+import demo.kafka.domain.PartitionWatermark;
 import demo.kafka.domain.ProcessedEvent;
 import demo.kafka.event.DemoInboundEvent;
 import demo.kafka.lib.KafkaClient;
 import demo.kafka.mapper.JsonMapper;
+import demo.kafka.store.DynamoDbIdempotencyStore;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
@@ -66,8 +68,13 @@ public abstract class IntegrationTestBase {
         registry.getListenerContainers().stream().forEach(container ->
                 ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic()));
 
+        createTable(DynamoDbIdempotencyStore.withTopicPartitionIndex(dynamoDBMapper.generateCreateTableRequest(ProcessedEvent.class),
+                new ProvisionedThroughput(1L, 1L)));
+        createTable(dynamoDBMapper.generateCreateTableRequest(PartitionWatermark.class));
+    }
+
+    private void createTable(CreateTableRequest tableRequest) {
         try {
-            CreateTableRequest tableRequest = dynamoDBMapper.generateCreateTableRequest(ProcessedEvent.class);
             tableRequest.setProvisionedThroughput(new ProvisionedThroughput(1L, 1L));
             amazonDynamoDB.createTable(tableRequest);
         } catch (ResourceInUseException e) {
@@ -101,10 +108,14 @@ public abstract class IntegrationTestBase {
     }
 
     SendResult sendMessage(String topic, String eventId, String key, DemoInboundEvent event) throws Exception {
+        return sendMessage(topic, eventId, key, null, event);
+    }
+
+    SendResult sendMessage(String topic, String eventId, String key, Integer partition, DemoInboundEvent event) throws Exception {
         String payload = JsonMapper.writeToJson(event);
         List<Header> headers = new ArrayList<>();
         headers.add(new RecordHeader(KafkaClient.EVENT_ID_HEADER_KEY, eventId != null ? eventId.getBytes() : null));
-        final ProducerRecord<Long, String> record = new ProducerRecord(topic, null, key, payload, headers);
+        final ProducerRecord<Long, String> record = new ProducerRecord(topic, partition, key, payload, headers);
 
         final SendResult result = (SendResult)kafkaTemplate.send(record).get();
         final RecordMetadata metadata = result.getRecordMetadata();
@@ -0,0 +1,73 @@
+package demo.kafka.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Run the batch listener with key ordered parallel processing, where the records for different keys on the same
+ * partition are processed in parallel.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.batch.enabled=true", "kafkademo.batch.keyOrderedWorkers=4" })
+public class KeyOrderedBatchConsumerIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    /**
+     * Send events for four keys to the same partition, each with a slow third party call.  Processed one at a time they
+     * would take at least eight seconds, so completing well within that shows the keys were processed in parallel.
+     */
+    @Test
+    public void testKeysProcessedInParallel() throws Exception {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String key = UUID.randomUUID().toString();
+            keys.add(key);
+            stubFor(get(urlEqualTo("/api/kafkawithdynamodbdemo/" + key))
+                    .willReturn(aResponse().withStatus(200).withHeader("Content-Type", "text/plain").withBody("Success").withFixedDelay(2000)));
+        }
+        for (String key : keys) {
+            sendMessage(DEMO_INBOUND_TEST_TOPIC, UUID.randomUUID().toString(), key, 0, buildDemoInboundEvent(key));
+        }
+
+        Awaitility.await().atMost(6, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(4));
+        keys.forEach(key -> verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key))));
+    }
+}
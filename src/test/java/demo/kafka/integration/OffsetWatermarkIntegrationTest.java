@@ -0,0 +1,74 @@
+package demo.kafka.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import demo.kafka.domain.PartitionWatermark;
+import demo.kafka.event.DemoInboundEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Run with the offset watermark enabled and written on every record, to show the watermark is advanced as records
+ * complete.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.watermark.enabled=true", "kafkademo.watermark.flushEveryRecords=1" })
+public class OffsetWatermarkIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @Autowired
+    private DynamoDBMapper dynamoDBMapper;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    @Test
+    public void testWatermarkAdvancedOnCompletion() throws Exception {
+        String key = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        SendResult result = sendMessage(DEMO_INBOUND_TEST_TOPIC, UUID.randomUUID().toString(), key, 0, inboundEvent);
+        long offset = result.getRecordMetadata().offset();
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> completedOffset(DEMO_INBOUND_TEST_TOPIC, 0), equalTo(offset));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+
+    private Long completedOffset(String topic, int partition) {
+        PartitionWatermark watermark = dynamoDBMapper.load(PartitionWatermark.class, PartitionWatermark.id("kafkaConsumerGroup", topic, partition));
+        return watermark != null ? watermark.getCompletedOffset() : null;
+    }
+}
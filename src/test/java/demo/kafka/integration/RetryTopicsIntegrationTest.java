@@ -0,0 +1,95 @@
+package demo.kafka.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Run the retry scenarios with retry topics, where a retryable failure is retried from a delay topic instead of
+ * blocking the inbound partition.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.retryTopics.enabled=true",
+        "kafkademo.retryTopics.initialBackOff=5s",
+        "kafkademo.retryTopics.topicPartitions=2" })
+public class RetryTopicsIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    /**
+     * The first call for the first key fails with a 503.  The event for the second key, behind it on the same
+     * partition, is emitted while the first is waiting on the retry topic, and the first is then emitted on its retry.
+     */
+    @Test
+    public void testRetryDoesNotBlockPartition() throws Exception {
+        String key1 = UUID.randomUUID().toString();
+        String key2 = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key1, 503, "Unavailable", "retry", "Started", "Succeed");
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key1, 200, "Success", "retry", "Succeed", "Succeed");
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key2, 200, "Success");
+
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, UUID.randomUUID().toString(), key1, 0, buildDemoInboundEvent(key1));
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, UUID.randomUUID().toString(), key2, 0, buildDemoInboundEvent(key2));
+
+        // Within the retry topic's delay, only the second event has been emitted.
+        Awaitility.await().atMost(4, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key1)));
+
+        Awaitility.await().atMost(20, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(2));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key1)));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key2)));
+    }
+
+    /**
+     * An event redelivered after it was processed on a retry is still deduplicated.
+     */
+    @Test
+    public void testRetriedEventDeduplication() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 503, "Unavailable", "retry", "Started", "Succeed");
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success", "retry", "Succeed", "Succeed");
+
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+        Awaitility.await().atMost(20, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+        TimeUnit.SECONDS.sleep(5);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+}
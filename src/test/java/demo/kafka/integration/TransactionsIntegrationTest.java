@@ -0,0 +1,130 @@
+package demo.kafka.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.lib.KafkaClient;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * Run with Kafka transactions, so each outbound event is committed along with its inbound record's offset.  The test
+ * listener shares the listener container factory, so only reads the outbound events of committed transactions.  The
+ * offset watermark is enabled, so that a record whose transaction rolled back is shown to be processed again.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
+@TestPropertySource(properties = { "kafkademo.transactions.enabled=true", "kafkademo.watermark.enabled=true" })
+public class TransactionsIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private IdempotentConsumerIntegrationTest.KafkaTestListener testReceiver;
+
+    @SpyBean
+    private KafkaClient kafkaClient;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    @Test
+    public void testTransactionalEventDeduplication() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        TimeUnit.SECONDS.sleep(5);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+
+    /**
+     * The event is only recorded once its transaction commits, so a retried event is still sent exactly once.
+     */
+    @Test
+    public void testRetriedEventSentOnce() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 503, "Unavailable", "retry", "Started", "Succeed");
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success", "retry", "Succeed", "Succeed");
+
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(20, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        TimeUnit.SECONDS.sleep(3);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+
+    /**
+     * The first transaction rolls back after the listener has returned, so the record is redelivered and, although at
+     * the offset the listener completed, is processed again and its outbound event committed.
+     */
+    @Test
+    public void testRolledBackRecordProcessedAgain() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+        final AtomicBoolean rolledBack = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (rolledBack.compareAndSet(false, true)) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void beforeCommit(boolean readOnly) {
+                        throw new IllegalStateException("Rolled back by the test");
+                    }
+                });
+            }
+            return invocation.callRealMethod();
+        }).when(kafkaClient).sendMessage(eq(key), anyString());
+
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(20, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        TimeUnit.SECONDS.sleep(3);
+        assertThat(rolledBack.get(), equalTo(true));
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+}
@@ -0,0 +1,96 @@
+package demo.kafka.integration;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.lib.KafkaClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.awaitility.Awaitility;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Run with the typed value deserializer.
+ *
+ * The test listener on the outbound topic shares the listener container factory, so cannot read the outbound events in
+ * this mode.  Processing is verified by the calls to the third party service instead.
+ */
+@Slf4j
+@ExtendWith(LocalDbCreationRule.class)
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-inbound-topic" })
+@TestPropertySource(properties = { "kafka.consumer.typedValueDeserializer=true" })
+public class TypedDeserializerIntegrationTest extends IntegrationTestBase {
+
+    @ClassRule
+    public static LocalDbCreationRule dynamoDB = new LocalDbCreationRule();
+
+    final static String DEMO_INBOUND_TEST_TOPIC = "demo-inbound-topic";
+
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void testSuccess() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> thirdpartyCalls(key), equalTo(1));
+        TimeUnit.SECONDS.sleep(2);
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key)));
+    }
+
+    /**
+     * A value that is not a valid event is skipped as a mapping failure, and the events after it are still processed.
+     */
+    @Test
+    public void testPoisonPillIsSkipped() throws Exception {
+        String key = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkawithdynamodbdemo/" + key, 200, "Success");
+
+        double mappingFailures = mappingFailures();
+        kafkaTemplate.send(new ProducerRecord<>(DEMO_INBOUND_TEST_TOPIC, null, key, "not an event",
+                Collections.singletonList(new RecordHeader(KafkaClient.EVENT_ID_HEADER_KEY, UUID.randomUUID().toString().getBytes())))).get();
+        sendMessage(DEMO_INBOUND_TEST_TOPIC, UUID.randomUUID().toString(), key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> thirdpartyCalls(key), equalTo(1));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(this::mappingFailures, equalTo(mappingFailures + 1));
+    }
+
+    private int thirdpartyCalls(String key) {
+        return findAll(getRequestedFor(urlEqualTo("/api/kafkawithdynamodbdemo/" + key))).size();
+    }
+
+    private double mappingFailures() {
+        return meterRegistry.find("kafkademo.mapping.failures").tag("topic", DEMO_INBOUND_TEST_TOPIC).counters().stream()
+                .mapToDouble(Counter::count)
+                .sum();
+    }
+}
@@ -0,0 +1,35 @@
+package demo.kafka.mapper;
+
+import java.nio.charset.StandardCharsets;
+
+import demo.kafka.event.DemoInboundEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DemoInboundEventDeserializerTest {
+
+    private final DemoInboundEventDeserializer deserializer = new DemoInboundEventDeserializer();
+
+    @Test
+    public void testDeserialize() {
+        DemoInboundEvent event = DemoInboundEvent.builder().id("id").data("data").build();
+        byte[] value = JsonMapper.writeToJson(event).getBytes(StandardCharsets.UTF_8);
+
+        assertThat(deserializer.deserialize("topic", value), equalTo(event));
+    }
+
+    @Test
+    public void testDeserializeNull() {
+        assertThat(deserializer.deserialize("topic", null), nullValue());
+    }
+
+    @Test
+    public void testDeserializeInvalid() {
+        assertThrows(SerializationException.class, () -> deserializer.deserialize("topic", "not an event".getBytes(StandardCharsets.UTF_8)));
+    }
+}
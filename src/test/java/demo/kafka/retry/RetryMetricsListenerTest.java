@@ -0,0 +1,67 @@
+package demo.kafka.retry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.metrics.DemoMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.listener.adapter.RetryingMessageListenerAdapter;
+import org.springframework.retry.support.RetryTemplate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RetryMetricsListenerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final RetryTemplate retryTemplate = RetryTemplate.builder()
+            .noBackoff()
+            .maxAttempts(5)
+            .withListener(new RetryMetricsListener(new DemoMetrics(meterRegistry)))
+            .build();
+
+    private final ConsumerRecord<String, String> record = new ConsumerRecord<>("demo-inbound-topic", 1, 0, "key", "value");
+
+    @Test
+    public void testRetriesUntilSuccess() {
+        final AtomicInteger attempts = new AtomicInteger();
+        retryTemplate.execute(context -> {
+            context.setAttribute(RetryingMessageListenerAdapter.CONTEXT_RECORD, record);
+            if (attempts.incrementAndGet() < 3) {
+                throw new KafkaDemoRetryableException(new RuntimeException("failed"));
+            }
+            return null;
+        });
+
+        assertThat(retries(), equalTo(2.0));
+    }
+
+    @Test
+    public void testRetriesExhausted() {
+        assertThrows(KafkaDemoRetryableException.class, () -> retryTemplate.execute(context -> {
+            context.setAttribute(RetryingMessageListenerAdapter.CONTEXT_RECORD, record);
+            throw new KafkaDemoRetryableException(new RuntimeException("failed"));
+        }));
+
+        // The last of the five failed attempts is recovered, not retried.
+        assertThat(retries(), equalTo(4.0));
+    }
+
+    @Test
+    public void testNoRetries() {
+        retryTemplate.execute(context -> {
+            context.setAttribute(RetryingMessageListenerAdapter.CONTEXT_RECORD, record);
+            return null;
+        });
+
+        assertThat(meterRegistry.find("kafkademo.retries").counter(), equalTo(null));
+    }
+
+    private double retries() {
+        return meterRegistry.get("kafkademo.retries").tag("topic", "demo-inbound-topic").tag("partition", "1").counter().count();
+    }
+}
@@ -0,0 +1,179 @@
+package demo.kafka.store;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.exception.DynamoDbThrottledException;
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The async store's translation of the client's failures, against a client stub failing every request, and its bound on
+ * requests in flight, against a stub leaving every request pending.
+ */
+public class DynamoDbAsyncIdempotencyStoreTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void testProvisionedThroughputExceededIsThrottled() {
+        final DynamoDbAsyncIdempotencyStore store = store(ProvisionedThroughputExceededException.builder().message("exceeded").build());
+
+        assertThrows(DynamoDbThrottledException.class, () -> store.isProcessed("a"));
+        assertThrows(DynamoDbThrottledException.class, () -> store.markProcessed("a"));
+
+        assertThat(throttled("GetItem"), equalTo(1.0));
+        assertThat(throttled("PutItem"), equalTo(1.0));
+    }
+
+    @Test
+    public void testThrottlingErrorCodeIsThrottled() {
+        final DynamoDbAsyncIdempotencyStore store = store(AwsServiceException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                .statusCode(400)
+                .build());
+
+        assertThrows(DynamoDbThrottledException.class, () -> store.isProcessed("a"));
+        assertThat(throttled("GetItem"), equalTo(1.0));
+    }
+
+    @Test
+    public void testThrottlingCutsTheRateLimit() {
+        final KafkaDemoProperties.DynamoDb config = new KafkaDemoProperties.DynamoDb();
+        config.setRateLimitEnabled(true);
+        final DynamoDbRateLimiter rateLimiter = new DynamoDbRateLimiter(config, meterRegistry);
+        final DynamoDbAsyncIdempotencyStore store = new DynamoDbAsyncIdempotencyStore(
+                new FailingClient(ProvisionedThroughputExceededException.builder().message("exceeded").build()), config, meterRegistry, rateLimiter);
+
+        assertThrows(DynamoDbThrottledException.class, () -> store.isProcessed("a"));
+
+        assertThat(rateLimiter.getRate(DynamoDbRateLimiter.Capacity.READ), lessThan(config.getRateLimitReadInitial()));
+        assertThat(rateLimiter.getRate(DynamoDbRateLimiter.Capacity.WRITE), equalTo(config.getRateLimitWriteInitial()));
+    }
+
+    @Test
+    public void testConditionalCheckFailureIsDuplicate() {
+        final DynamoDbAsyncIdempotencyStore store = store(ConditionalCheckFailedException.builder().message("exists").build());
+
+        assertThrows(DuplicateEventException.class, () -> store.markProcessed("a"));
+        assertThat(throttled("PutItem"), equalTo(0.0));
+    }
+
+    @Test
+    public void testRequestOverTheLimitIsQueuedUntilAPermitIsHandedOn() {
+        final KafkaDemoProperties.DynamoDb config = new KafkaDemoProperties.DynamoDb();
+        config.setAsyncMaxInFlight(1);
+        final PendingClient client = new PendingClient();
+        final DynamoDbAsyncIdempotencyStore store = new DynamoDbAsyncIdempotencyStore(client, config, meterRegistry, new DynamoDbRateLimiter(config, meterRegistry));
+
+        final CompletableFuture<Boolean> first = store.isProcessedAsync("a");
+        final CompletableFuture<Boolean> second = store.isProcessedAsync("b");
+        assertThat(client.pending.size(), equalTo(1));
+        assertThat(store.getInFlight(), equalTo(1));
+
+        client.pending.get(0).complete(GetItemResponse.builder().build());
+        assertThat(first.join(), equalTo(false));
+        assertThat(client.pending.size(), equalTo(2));
+        assertThat(second.isDone(), equalTo(false));
+
+        client.pending.get(1).complete(GetItemResponse.builder().build());
+        assertThat(second.join(), equalTo(false));
+        assertThat(store.getInFlight(), equalTo(0));
+    }
+
+    @Test
+    public void testQueuedRequestFailsAsRetryableAfterTheAcquireTimeout() {
+        final KafkaDemoProperties.DynamoDb config = new KafkaDemoProperties.DynamoDb();
+        config.setAsyncMaxInFlight(1);
+        config.setAsyncInFlightAcquireTimeout(Duration.ofMillis(50));
+        final PendingClient client = new PendingClient();
+        final DynamoDbAsyncIdempotencyStore store = new DynamoDbAsyncIdempotencyStore(client, config, meterRegistry, new DynamoDbRateLimiter(config, meterRegistry));
+
+        store.isProcessedAsync("a");
+        final Exception e = assertThrows(Exception.class, () -> store.isProcessedAsync("b").join());
+        assertThat(e.getCause(), instanceOf(KafkaDemoRetryableException.class));
+
+        // The permit held by the first request is returned rather than handed to the timed out one.
+        client.pending.get(0).complete(GetItemResponse.builder().build());
+        assertThat(client.pending.size(), equalTo(1));
+        assertThat(store.getInFlight(), equalTo(0));
+    }
+
+    private DynamoDbAsyncIdempotencyStore store(final Exception failure) {
+        final KafkaDemoProperties.DynamoDb config = new KafkaDemoProperties.DynamoDb();
+        return new DynamoDbAsyncIdempotencyStore(new FailingClient(failure), config, meterRegistry, new DynamoDbRateLimiter(config, meterRegistry));
+    }
+
+    private double throttled(final String operation) {
+        return meterRegistry.counter("kafkademo.dynamodb.throttled", "operation", operation, "source", "service").count();
+    }
+
+    private static class FailingClient implements DynamoDbAsyncClient {
+
+        private final Exception failure;
+
+        FailingClient(final Exception failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public CompletableFuture<GetItemResponse> getItem(final GetItemRequest request) {
+            return CompletableFuture.failedFuture(failure);
+        }
+
+        @Override
+        public CompletableFuture<PutItemResponse> putItem(final PutItemRequest request) {
+            return CompletableFuture.failedFuture(failure);
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class PendingClient implements DynamoDbAsyncClient {
+
+        private final List<CompletableFuture<GetItemResponse>> pending = new ArrayList<>();
+
+        @Override
+        public CompletableFuture<GetItemResponse> getItem(final GetItemRequest request) {
+            final CompletableFuture<GetItemResponse> response = new CompletableFuture<>();
+            pending.add(response);
+            return response;
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
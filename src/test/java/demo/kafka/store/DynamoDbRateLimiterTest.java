@@ -0,0 +1,110 @@
+package demo.kafka.store;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import demo.kafka.exception.DynamoDbThrottledException;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.store.DynamoDbRateLimiter.Capacity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DynamoDbRateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private KafkaDemoProperties.DynamoDb config;
+
+    @BeforeEach
+    public void setUp() {
+        config = new KafkaDemoProperties.DynamoDb();
+        config.setRateLimitEnabled(true);
+        config.setRateLimitReadInitial(10);
+        config.setRateLimitReadMin(1);
+        config.setRateLimitReadMax(100);
+        config.setRateLimitWriteInitial(10);
+        config.setRateLimitWriteMin(1);
+        config.setRateLimitWriteMax(100);
+        config.setRateLimitIncreasePerSecond(5);
+        config.setRateLimitMaxWait(Duration.ofMillis(500));
+    }
+
+    @Test
+    public void testWaitsOnceBucketEmpty() {
+        DynamoDbRateLimiter limiter = limiter();
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.reserve(Capacity.READ), equalTo(0L));
+        }
+        assertThat(limiter.reserve(Capacity.READ), equalTo(TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+    @Test
+    public void testFailsRatherThanWaitBeyondMaxWait() {
+        DynamoDbRateLimiter limiter = limiter();
+        limiter.consumed(Capacity.READ, 16);
+
+        assertThrows(DynamoDbThrottledException.class, () -> limiter.call("GetItem", Capacity.READ, () -> "item"));
+        assertThat(meterRegistry.counter("kafkademo.dynamodb.throttled", "operation", "GetItem", "source", "limiter").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testThrottlingHalvesRateOncePerInterval() {
+        DynamoDbRateLimiter limiter = limiter();
+        AmazonServiceException throttled = new ProvisionedThroughputExceededException("throttled");
+
+        assertThrows(DynamoDbThrottledException.class, () -> limiter.call("PutItem", Capacity.WRITE, () -> { throw throttled; }));
+        assertThrows(DynamoDbThrottledException.class, () -> limiter.call("PutItem", Capacity.WRITE, () -> { throw throttled; }));
+
+        assertThat(limiter.getRate(Capacity.WRITE), closeTo(5, 0.001));
+        assertThat(meterRegistry.counter("kafkademo.dynamodb.throttled", "operation", "PutItem", "source", "service").count(), equalTo(2.0));
+    }
+
+    @Test
+    public void testRateGrowsWithoutThrottling() {
+        DynamoDbRateLimiter limiter = limiter();
+        limiter.onThrottle(Capacity.READ);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(3));
+        limiter.reserve(Capacity.READ);
+
+        assertThat(limiter.getRate(Capacity.READ), closeTo(20, 0.001));
+    }
+
+    @Test
+    public void testOtherErrorsRethrown() {
+        DynamoDbRateLimiter limiter = limiter();
+
+        assertThrows(ConditionalCheckFailedException.class, () -> limiter.call("PutItem", Capacity.WRITE, () -> {
+            throw new ConditionalCheckFailedException("condition");
+        }));
+        assertThat(limiter.getRate(Capacity.WRITE), closeTo(10, 0.001));
+    }
+
+    @Test
+    public void testReadsAndWritesLimitedSeparately() {
+        DynamoDbRateLimiter limiter = limiter();
+        limiter.consumed(Capacity.WRITE, 16);
+        limiter.onThrottle(Capacity.WRITE);
+
+        assertThat(limiter.reserve(Capacity.READ), equalTo(0L));
+        assertThat(limiter.reserve(Capacity.WRITE), equalTo(-1L));
+        assertThat(limiter.getRate(Capacity.READ), closeTo(10, 0.001));
+        assertThat(limiter.getRate(Capacity.WRITE), closeTo(5, 0.001));
+    }
+
+    private DynamoDbRateLimiter limiter() {
+        return new DynamoDbRateLimiter(config, meterRegistry, clock::get);
+    }
+}
@@ -0,0 +1,94 @@
+package demo.kafka.store;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.exception.EventLeaseHeldException;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InMemoryIdempotencyStoreTest {
+
+    private final InMemoryIdempotencyStore store = new InMemoryIdempotencyStore();
+
+    @Test
+    public void testMarkProcessed() {
+        assertThat(store.isProcessed("a"), equalTo(false));
+
+        store.markProcessed("a");
+
+        assertThat(store.isProcessed("a"), equalTo(true));
+        assertThrows(DuplicateEventException.class, () -> store.markProcessed("a"));
+    }
+
+    @Test
+    public void testBatchVariants() {
+        store.markProcessed("a");
+
+        assertThat(store.markAllProcessed(Arrays.asList("a", "b", "c")), containsInAnyOrder("a"));
+        assertThat(store.findProcessed(Arrays.asList("a", "c", "d")), containsInAnyOrder("a", "c"));
+    }
+
+    @Test
+    public void testAsyncVariants() {
+        store.markProcessedAsync("a").join();
+
+        assertThat(store.isProcessedAsync("a").join(), equalTo(true));
+        assertThat(store.markProcessedAsync("a").isCompletedExceptionally(), equalTo(true));
+    }
+
+    @Test
+    public void testClaimThenComplete() {
+        store.claim("a", "owner1", Duration.ofMinutes(1));
+        assertThat(store.isProcessed("a"), equalTo(false));
+
+        // The owner may reclaim, such as on a retry, but another instance may not.
+        store.claim("a", "owner1", Duration.ofMinutes(1));
+        assertThrows(EventLeaseHeldException.class, () -> store.claim("a", "owner2", Duration.ofMinutes(1)));
+
+        assertThat(store.complete("a", "owner1"), equalTo(true));
+        assertThat(store.isProcessed("a"), equalTo(true));
+        assertThrows(DuplicateEventException.class, () -> store.claim("a", "owner2", Duration.ofMinutes(1)));
+    }
+
+    @Test
+    public void testExpiredClaimCanBeTakenOver() {
+        store.claim("a", "owner1", Duration.ofMillis(-1));
+        store.claim("a", "owner2", Duration.ofMinutes(1));
+
+        assertThat(store.complete("a", "owner1"), equalTo(false));
+        assertThat(store.complete("a", "owner2"), equalTo(true));
+    }
+
+    @Test
+    public void testReleasedClaimCanBeTakenOver() {
+        store.claim("a", "owner1", Duration.ofMinutes(1));
+        store.release("a", "owner2");
+        assertThrows(EventLeaseHeldException.class, () -> store.claim("a", "owner2", Duration.ofMinutes(1)));
+
+        store.release("a", "owner1");
+        store.claim("a", "owner2", Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void testFindRecentlyProcessed() {
+        TopicPartition partition0 = new TopicPartition("topic", 0);
+        store.markProcessed("a", partition0, 1L);
+        store.markProcessed("b", partition0, 2L);
+        store.markProcessed("c", partition0, 3L);
+        store.markProcessed("d", new TopicPartition("topic", 1), 4L);
+        store.markProcessed("e");
+        store.claim("f", "owner1", Duration.ofMinutes(1), partition0, 5L);
+
+        assertThat(store.findRecentlyProcessed(partition0, 2), containsInAnyOrder("b", "c"));
+
+        store.complete("f", "owner1");
+        assertThat(store.findRecentlyProcessed(partition0, 2), containsInAnyOrder("c", "f"));
+    }
+}
@@ -0,0 +1,193 @@
+package demo.kafka.thirdparty;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ThirdpartyClientTest {
+
+    private static final int LOOKUPS = 4;
+
+    private final KafkaDemoProperties properties = new KafkaDemoProperties();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final BlockingRestTemplate restTemplate = new BlockingRestTemplate();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(LOOKUPS);
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        properties.setThirdpartyEndpoint(new URL("http://localhost/api"));
+        properties.getThirdparty().setResponseCacheTtl(Duration.ofMinutes(1));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneCall() throws Exception {
+        properties.getThirdparty().setSingleFlight(true);
+        final ThirdpartyClient client = new ThirdpartyClient(restTemplate, properties, meterRegistry);
+
+        final List<Future<ResponseEntity<String>>> lookups = lookUpConcurrently(client, "key");
+        restTemplate.release.countDown();
+
+        for (final Future<ResponseEntity<String>> lookup : lookups) {
+            assertThat(lookup.get(5, TimeUnit.SECONDS).getBody(), equalTo("Success"));
+        }
+        assertThat(restTemplate.calls.get(), equalTo(1));
+        assertThat(meterRegistry.get("kafkademo.thirdparty.coalesced").counter().count(), equalTo((double) LOOKUPS - 1));
+    }
+
+    @Test
+    public void testConcurrentLookupsShareTheFailure() throws Exception {
+        properties.getThirdparty().setSingleFlight(true);
+        restTemplate.status = HttpStatus.SERVICE_UNAVAILABLE;
+        final ThirdpartyClient client = new ThirdpartyClient(restTemplate, properties, meterRegistry);
+
+        final List<Future<ResponseEntity<String>>> lookups = lookUpConcurrently(client, "key");
+        restTemplate.release.countDown();
+
+        for (final Future<ResponseEntity<String>> lookup : lookups) {
+            final Exception e = assertThrows(Exception.class, () -> lookup.get(5, TimeUnit.SECONDS));
+            assertThat(e.getCause(), instanceOf(HttpServerErrorException.class));
+        }
+        assertThat(restTemplate.calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void testConcurrentLookupsShareAnError() throws Exception {
+        properties.getThirdparty().setSingleFlight(true);
+        restTemplate.error = new NoClassDefFoundError("missing");
+        final ThirdpartyClient client = new ThirdpartyClient(restTemplate, properties, meterRegistry);
+
+        final List<Future<ResponseEntity<String>>> lookups = lookUpConcurrently(client, "key");
+        restTemplate.release.countDown();
+
+        for (final Future<ResponseEntity<String>> lookup : lookups) {
+            final Exception e = assertThrows(Exception.class, () -> lookup.get(5, TimeUnit.SECONDS));
+            assertThat(e.getCause(), instanceOf(NoClassDefFoundError.class));
+        }
+        assertThat(restTemplate.calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void testWithoutSingleFlightEachLookupCalls() throws Exception {
+        final ThirdpartyClient client = new ThirdpartyClient(restTemplate, properties, meterRegistry);
+        restTemplate.release.countDown();
+
+        for (final Future<ResponseEntity<String>> lookup : lookUpConcurrently(client, "key")) {
+            lookup.get(5, TimeUnit.SECONDS);
+        }
+        assertThat(restTemplate.calls.get(), equalTo(LOOKUPS));
+    }
+
+    @Test
+    public void testSuccessfulResponseCached() {
+        properties.getThirdparty().setResponseCacheEnabled(true);
+        final ThirdpartyClient client = new ThirdpartyClient(restTemplate, properties, meterRegistry);
+        restTemplate.release.countDown();
+
+        client.get("key");
+        client.get("key");
+        client.get("other-key");
+
+        assertThat(restTemplate.calls.get(), equalTo(2));
+        assertThat(meterRegistry.get("kafkademo.thirdparty.response.cache.hits").functionCounter().count(), equalTo(1.0));
+        assertThat(meterRegistry.get("kafkademo.thirdparty.response.cache.hit.ratio").gauge().value(), equalTo(1.0 / 3));
+    }
+
+    @Test
+    public void testFailedResponseNotCached() {
+        properties.getThirdparty().setResponseCacheEnabled(true);
+        restTemplate.status = HttpStatus.SERVICE_UNAVAILABLE;
+        final ThirdpartyClient client = new ThirdpartyClient(restTemplate, properties, meterRegistry);
+        restTemplate.release.countDown();
+
+        assertThrows(HttpServerErrorException.class, () -> client.get("key"));
+        restTemplate.status = HttpStatus.OK;
+        client.get("key");
+        client.get("key");
+
+        assertThat(restTemplate.calls.get(), equalTo(2));
+    }
+
+    /**
+     * Start the lookups, returning once the first call is made and the others are waiting on it or also calling.
+     */
+    private List<Future<ResponseEntity<String>>> lookUpConcurrently(final ThirdpartyClient client, final String key) throws Exception {
+        final CountDownLatch started = new CountDownLatch(LOOKUPS);
+        final List<Future<ResponseEntity<String>>> lookups = new ArrayList<>();
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups.add(executor.submit(() -> {
+                started.countDown();
+                return client.get(key);
+            }));
+        }
+        started.await(5, TimeUnit.SECONDS);
+        restTemplate.called.await(5, TimeUnit.SECONDS);
+        // Give the other lookups time to reach the call in flight.
+        TimeUnit.MILLISECONDS.sleep(200);
+        return lookups;
+    }
+
+    /**
+     * Holds every call until released, then responds with the status, or throws the error if one is set.
+     */
+    private static class BlockingRestTemplate extends RestTemplate {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private final CountDownLatch called = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private volatile HttpStatus status = HttpStatus.OK;
+
+        private volatile Error error;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> ResponseEntity<T> getForEntity(final String url, final Class<T> responseType, final Object... uriVariables) {
+            calls.incrementAndGet();
+            called.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (status != HttpStatus.OK) {
+                throw new HttpServerErrorException(status);
+            }
+            return (ResponseEntity<T>) ResponseEntity.ok("Success");
+        }
+    }
+}